@@ -0,0 +1,35 @@
+#!/bin/sh
+# Builds and runs the JMH benchmarks against every pattern module's sources.
+#
+# Expects these jars in ../lib (next to mockito):
+#   jmh-core-1.37.jar, jmh-generator-annprocess-1.37.jar,
+#   jopt-simple-5.0.4.jar, commons-math3-3.6.1.jar
+#
+# Usage: ./run.sh [label] [extra JMH options, e.g. RacketDecorator -f 1]
+# Every run is profiled with -prof gc (allocation rate, bytes/op, GC counts) and its
+# results are written as JMH JSON to results/<label>.json, so two releases can be
+# compared by diffing their result files.
+#
+# JMH refuses benchmarks in the default package, and a named package can't see the
+# examples, which all live in the default package. So the examples are copied into
+# build/src with a "package patterns;" line prepended and compiled alongside the
+# benchmarks (src/patterns), leaving the modules themselves untouched.
+set -e
+cd "$(dirname "$0")"
+
+LABEL=${1:-$(date +%Y%m%d-%H%M%S)}
+[ $# -gt 0 ] && shift
+
+LIB=../lib
+CP=$(ls $LIB/jmh-core-*.jar $LIB/jmh-generator-annprocess-*.jar \
+	$LIB/jopt-simple-*.jar $LIB/commons-math3-*.jar | tr '\n' ':')
+
+rm -rf build && mkdir -p build/src/patterns build/classes results
+for source in $(ls ../command/src/*.java ../command2/src/*.java ../decorator/src/*.java \
+		../Singleton/src/*.java ../template/src/*.java | grep -v 'Tests\.java$'); do
+	{ echo "package patterns;"; cat "$source"; } > "build/src/patterns/$(basename "$source")"
+done
+cp src/patterns/*.java build/src/patterns/
+
+javac -cp "$CP" -d build/classes build/src/patterns/*.java
+java -cp "build/classes:$CP" org.openjdk.jmh.Main -prof gc -rf json -rff "results/$LABEL.json" "$@"
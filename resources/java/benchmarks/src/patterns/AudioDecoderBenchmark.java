@@ -0,0 +1,82 @@
+package patterns;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+// AudioDecoder.play() template overhead, with the PCM cache and phase metrics on and off
+// (template module). The native decode is a stub, so this measures the template itself.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class AudioDecoderBenchmark {
+	@Param({"false", "true"})
+	public boolean cached;
+
+	@Param({"false", "true"})
+	public boolean metrics;
+
+	private AudioDecoder decoder;
+	private File clip;
+
+	@Setup
+	public void setUp(final Blackhole blackhole) throws IOException {
+		// a real file, since the cache key comes from its modification time and size
+		this.clip = File.createTempFile("clip", ".mp3");
+		final byte[] pcm = new byte[4096];
+		this.decoder = new QuietDecoder(new INativeDecoder() {
+			public byte[] decode(AudioInputStream ais) {
+				return pcm;
+			}
+		}, this.clip.getPath());
+		this.decoder.setSink(new PCMSink() {
+			public void write(ByteBuffer buffer) {
+				blackhole.consume(buffer);
+			}
+		});
+		if (this.cached) {
+			this.decoder.setCache(new DecodedAudioCache(1 << 20));
+		}
+		TemplateMetrics.setEnabled(this.metrics);
+	}
+
+	@TearDown
+	public void tearDown() {
+		TemplateMetrics.setEnabled(false);
+		this.clip.delete();
+	}
+
+	@Benchmark
+	public void play() {
+		this.decoder.play();
+	}
+
+	// MP3Decoder's hooks print, which would swamp what we're measuring
+	static class QuietDecoder extends AudioDecoder {
+		QuietDecoder(INativeDecoder decoder, String pathToAudioFile) {
+			super(decoder, pathToAudioFile);
+		}
+
+		@Override
+		public AudioInputStream loadStream() {
+			return null;
+		}
+
+		@Override
+		public byte[] decode(AudioInputStream ais) {
+			return this.decoder.decode(ais);
+		}
+	}
+}
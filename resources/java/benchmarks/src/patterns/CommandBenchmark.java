@@ -0,0 +1,55 @@
+package patterns;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Invoker.action()/undo() dispatch through ConcreteCommand (command module)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class CommandBenchmark {
+	private Invoker invoker;
+	private CountingReceiver receiver;
+
+	@Setup
+	public void setUp() {
+		this.receiver = new CountingReceiver();
+		this.invoker = new Invoker();
+		this.invoker.setCommand(new ConcreteCommand(this.receiver));
+	}
+
+	@Benchmark
+	public void action(Blackhole blackhole) {
+		this.invoker.action();
+		blackhole.consume(this.receiver.count);
+	}
+
+	@Benchmark
+	public void undo(Blackhole blackhole) {
+		this.invoker.undo();
+		blackhole.consume(this.receiver.count);
+	}
+
+	// Receiver prints, which would swamp what we're measuring
+	static class CountingReceiver extends Receiver {
+		long count;
+
+		@Override
+		public void doSomething() {
+			count++;
+		}
+
+		@Override
+		public void undoSomething() {
+			count--;
+		}
+	}
+}
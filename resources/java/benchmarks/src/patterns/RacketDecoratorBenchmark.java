@@ -0,0 +1,42 @@
+package patterns;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// RacketDecorator.getPrice() through decorator chains of varying depth (decorator module)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RacketDecoratorBenchmark {
+	@Param({"1", "4", "16", "64"})
+	public int depth;
+
+	private Racket racket;
+
+	@Setup
+	public void setUp() {
+		Racket racket = new ConcreteRacket();
+		// cycle through the three decorators so the call site stays megamorphic
+		for (int i = 0; i < this.depth; i++) {
+			switch (i % 3) {
+				case 0: racket = new PrinceSyntheticGutStringDecorator(racket); break;
+				case 1: racket = new VSGutStringDecorator(racket); break;
+				default: racket = new WilsonProOvergripDecorator(racket); break;
+			}
+		}
+		this.racket = racket;
+	}
+
+	@Benchmark
+	public double getPrice() {
+		return this.racket.getPrice();
+	}
+}
@@ -0,0 +1,26 @@
+package patterns;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+
+// Singleton.getInstance() uncontended and with every core calling it (Singleton module)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SingletonBenchmark {
+	@Benchmark
+	@Threads(1)
+	public Singleton getInstance() {
+		return Singleton.getInstance();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Singleton getInstanceContended() {
+		return Singleton.getInstance();
+	}
+}
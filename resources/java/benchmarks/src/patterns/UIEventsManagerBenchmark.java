@@ -0,0 +1,97 @@
+package patterns;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// UIEventsManager menu/toolbar dispatch (command2 module)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class UIEventsManagerBenchmark {
+	private static final String[] KEYS = {"open", "close", "cut", "paste"};
+
+	// Registered commands beyond the four we press, to see if the map size matters
+	@Param({"0", "1000"})
+	public int extraCommands;
+
+	private UIEventsManager eventManager;
+	private CountingDocumentOperations documentOperations;
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		this.documentOperations = new CountingDocumentOperations();
+		this.eventManager = new UIEventsManager();
+		this.eventManager.addMenuCommand("open", new MenuItemOpen(this.documentOperations, "myfile.txt"));
+		this.eventManager.addMenuCommand("close", new MenuItemClose(this.documentOperations, "myfile.txt"));
+		this.eventManager.addMenuCommand("cut", new MenuItemCut(this.documentOperations));
+		this.eventManager.addMenuCommand("paste", new MenuItemPaste(this.documentOperations));
+		this.eventManager.addToolBarCommand("open", new ToolBarItemOpen(this.documentOperations, "myfile.txt"));
+		this.eventManager.addToolBarCommand("close", new ToolBarItemClose(this.documentOperations, "myfile.txt"));
+		this.eventManager.addToolBarCommand("cut", new ToolBarItemCut(this.documentOperations));
+		this.eventManager.addToolBarCommand("paste", new ToolBarItemPaste(this.documentOperations));
+		for (int i = 0; i < this.extraCommands; i++) {
+			this.eventManager.addMenuCommand("extra" + i, new MenuItemCut(this.documentOperations));
+			this.eventManager.addToolBarCommand("extra" + i, new ToolBarItemCut(this.documentOperations));
+		}
+	}
+
+	@Benchmark
+	public void menuPress(Blackhole blackhole) {
+		this.eventManager.handleMenuPressEvent(nextKey());
+		blackhole.consume(this.documentOperations.count);
+	}
+
+	@Benchmark
+	public void toolBarPress(Blackhole blackhole) {
+		this.eventManager.handleToolBarPressEvent(nextKey());
+		blackhole.consume(this.documentOperations.count);
+	}
+
+	@Benchmark
+	public void undoMenuPress(Blackhole blackhole) {
+		this.eventManager.handleUndoMenuPressEvent("paste");
+		blackhole.consume(this.documentOperations.count);
+	}
+
+	@Benchmark
+	public void unknownKey() {
+		this.eventManager.handleMenuPressEvent("missing");
+	}
+
+	private String nextKey() {
+		String key = KEYS[this.next];
+		this.next = (this.next + 1) & 3;
+		return key;
+	}
+
+	// DocumentOperations prints, which would swamp what we're measuring
+	static class CountingDocumentOperations implements IDocumentOperations {
+		long count;
+
+		public void open(String fileName) {
+			count++;
+		}
+		public void close(String fileName) {
+			count++;
+		}
+		public void cut() {
+			count++;
+		}
+		public void undoPaste() {
+			count--;
+		}
+		public void paste() {
+			count++;
+		}
+	}
+}
@@ -1,5 +1,13 @@
 import static org.junit.Assert.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -40,5 +48,22 @@ public class CommandTests {
 		this.invoker.undo();
 		verify(this.mockReceiver, times(1)).undoSomething();
 	}
-	
+
+	@Test
+	public void testTracesDispatchWhenRecording() throws Exception {
+		Path dump = Files.createTempFile("invoker", ".jfr");
+		Recording recording = new Recording();
+		recording.setDestination(dump);
+		recording.enable("patterns.InvokerDispatch").withoutThreshold();
+		recording.start();
+		this.invoker.action();
+		this.invoker.undo();
+		recording.stop();
+		recording.close();
+		List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+		Files.delete(dump);
+		assertEquals(2, events.size());
+		assertEquals("execute", events.get(0).getString("operation"));
+		assertEquals("undo", events.get(1).getString("operation"));
+	}
 }
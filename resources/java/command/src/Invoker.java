@@ -7,12 +7,25 @@ public class Invoker {
 	}
 	public void action() {
 		if (this.command != null) {
+			InvokerEvent event = new InvokerEvent();
+			event.begin();
 			command.execute();
+			commit(event, "execute");
 		}
 	}
 	public void undo() {
 		if (this.command != null) {
+			InvokerEvent event = new InvokerEvent();
+			event.begin();
 			command.undo();
+			commit(event, "undo");
+		}
+	}
+	private void commit(InvokerEvent event, String operation) {
+		if (event.shouldCommit()) {
+			event.command = this.command.getClass();
+			event.operation = operation;
+			event.commit();
 		}
 	}
 }
@@ -0,0 +1,22 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// JFR span around Invoker.action()/undo()
+@Name("patterns.InvokerDispatch")
+@Label("Invoker Dispatch")
+@Category({"Design Patterns", "Command"})
+@Description("Invoker.action() or undo() running its command")
+@Enabled(false)
+@StackTrace(false)
+class InvokerEvent extends Event {
+	@Label("Command")
+	Class<?> command;
+
+	@Label("Operation")
+	String operation;
+}
@@ -1,4 +1,18 @@
 import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -164,5 +178,141 @@ public class GUITests {
 		eventManager.handleMenuPressEvent("paste");
 		verify(mockToolbarPaste, times(1)).execute();
 	}
-}
 
+	@Test
+	public void testRecorderTracesAndForwardsEvents() throws IOException {
+		File traceFile = File.createTempFile("ui-events", ".trace");
+		try {
+			UIEventTraceWriter trace = new UIEventTraceWriter(traceFile.getPath());
+			UIEventsManager recorder = new UIEventsRecorder(eventManager, trace);
+			recorder.addMenuCommand("paste", mockMenuPaste);
+			recorder.addToolBarCommand("cut", mockToolbarCut);
+			recorder.handleMenuPressEvent("paste");
+			recorder.handleUndoMenuPressEvent("paste");
+			recorder.handleToolBarPressEvent("cut");
+			trace.close();
+			verify(mockMenuPaste, times(1)).execute();
+			verify(mockMenuPaste, times(1)).undo();
+			verify(mockToolbarCut, times(1)).execute();
+
+			UIEventTraceReader reader = new UIEventTraceReader(traceFile.getPath());
+			assertTrue(reader.next());
+			assertEquals(UIEventType.MENU_PRESS, reader.getType());
+			assertEquals("paste", reader.getKey());
+			assertTrue(reader.next());
+			assertEquals(UIEventType.UNDO_MENU_PRESS, reader.getType());
+			assertEquals("paste", reader.getKey());
+			long undoTimestamp = reader.getTimestampNanos();
+			assertTrue(reader.next());
+			assertEquals(UIEventType.TOOLBAR_PRESS, reader.getType());
+			assertEquals("cut", reader.getKey());
+			assertTrue(reader.getTimestampNanos() >= undoTimestamp);
+			assertFalse(reader.next());
+			reader.close();
+		} finally {
+			traceFile.delete();
+		}
+	}
+
+	@Test
+	public void testTruncatedTraceFailsWithIOException() throws IOException {
+		File traceFile = File.createTempFile("ui-events", ".trace");
+		try {
+			UIEventTraceWriter trace = new UIEventTraceWriter(traceFile.getPath());
+			trace.write(UIEventType.MENU_PRESS, "paste", 0);
+			trace.write(UIEventType.TOOLBAR_PRESS, "cut", 1000);
+			trace.close();
+			byte[] bytes = Files.readAllBytes(traceFile.toPath());
+			Files.write(traceFile.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+
+			UIEventTraceReader reader = new UIEventTraceReader(traceFile.getPath());
+			try {
+				assertTrue(reader.next());
+				assertEquals("paste", reader.getKey());
+				reader.next();
+				fail("Expected the truncated record to be reported as corrupt");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().startsWith("Corrupt trace"));
+			} finally {
+				reader.close();
+			}
+		} finally {
+			traceFile.delete();
+		}
+	}
+
+	@Test
+	public void testHugeKeyLengthFailsWithIOException() throws IOException {
+		File traceFile = File.createTempFile("ui-events", ".trace");
+		try {
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(traceFile));
+			out.writeInt(UIEventTraceWriter.MAGIC);
+			out.writeInt(UIEventTraceWriter.VERSION);
+			out.writeByte(UIEventTraceWriter.KEY_DEFINITION);
+			out.writeByte(0); // key id 0
+			out.write(new byte[] {(byte) 0x80, (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, 0x07}); // length 0x7FFFFF00
+			out.close();
+
+			UIEventTraceReader reader = new UIEventTraceReader(traceFile.getPath());
+			try {
+				reader.next();
+				fail("Expected the key length to be rejected before allocating it");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().startsWith("Corrupt trace"));
+			} finally {
+				reader.close();
+			}
+		} finally {
+			traceFile.delete();
+		}
+	}
+
+	@Test
+	public void testReplaysTraceAgainstDocumentOperations() throws IOException {
+		File traceFile = File.createTempFile("ui-events", ".trace");
+		try {
+			UIEventTraceWriter trace = new UIEventTraceWriter(traceFile.getPath());
+			for (int i = 0; i < 100; i++) {
+				trace.write(UIEventType.MENU_PRESS, "paste", i * 1000000L);
+				trace.write(UIEventType.UNDO_TOOLBAR_PRESS, "paste", i * 1000000L + 500000L);
+			}
+			trace.write(UIEventType.MENU_PRESS, "open", 100000000L);
+			trace.close();
+
+			UIEventTraceReplayer replayer = UIEventTraceReplayer.forDocument(mockDocumentOperations, "foofile.txt");
+			UIEventTraceReplayer.Report report = replayer.replayAtSpeed(traceFile.getPath(), 100);
+			assertEquals(201, report.getEvents());
+			verify(mockDocumentOperations, times(100)).paste();
+			verify(mockDocumentOperations, times(100)).undoPaste();
+			verify(mockDocumentOperations, times(1)).open("foofile.txt");
+
+			report = replayer.replayAtRate(traceFile.getPath(), 100000);
+			assertEquals(201, report.getEvents());
+			assertTrue(report.getLatencyNanos(50) <= report.getLatencyNanos(99));
+			assertTrue(report.getLatencyNanos(99) <= report.getMaxLatencyNanos());
+		} finally {
+			traceFile.delete();
+		}
+	}
+
+	@Test
+	public void testTracesDispatchWhenRecording() throws Exception {
+		eventManager.addToolBarCommand("paste", new ToolBarItemPaste(mockDocumentOperations));
+		Path dump = Files.createTempFile("ui-events", ".jfr");
+		Recording recording = new Recording();
+		recording.setDestination(dump);
+		recording.enable("patterns.UIEventDispatch").withoutThreshold();
+		recording.start();
+		eventManager.handleToolBarPressEvent("paste");
+		eventManager.handleUndoToolBarPressEvent("paste");
+		eventManager.handleToolBarPressEvent("unregistered");
+		recording.stop();
+		recording.close();
+		List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+		Files.delete(dump);
+		assertEquals(2, events.size());
+		assertEquals("toolbar", events.get(0).getString("source"));
+		assertFalse(events.get(0).getBoolean("undo"));
+		assertTrue(events.get(1).getBoolean("undo"));
+	}
+}
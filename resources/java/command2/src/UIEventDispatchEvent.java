@@ -0,0 +1,28 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// JFR span around UIEventsManager running a menu or toolbar ICommand
+@Name("patterns.UIEventDispatch")
+@Label("UI Event Dispatch")
+@Category({"Design Patterns", "Command"})
+@Description("UIEventsManager dispatching a menu or toolbar press to its ICommand")
+@Enabled(false)
+@StackTrace(false)
+class UIEventDispatchEvent extends Event {
+	@Label("Source")
+	String source;
+
+	@Label("Key")
+	String key;
+
+	@Label("Undo")
+	boolean undo;
+
+	@Label("Command")
+	Class<?> command;
+}
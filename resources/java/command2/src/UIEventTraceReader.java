@@ -0,0 +1,133 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Streams a trace written by UIEventTraceWriter. The file is memory-mapped a window at a
+// time, so traces far bigger than the heap (or than 2GB) can be read; only the key
+// dictionary is kept on the heap. Use it like an iterator: while (reader.next()) {...}
+public class UIEventTraceReader implements Closeable {
+	private static final long WINDOW_BYTES = 64L << 20;
+	// A record never spans more than this, so we remap when fewer bytes than it are left
+	private static final int MAX_RECORD_BYTES = 1 + 10 + 10 + UIEventTraceWriter.MAX_KEY_BYTES;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+	private final List<String> keys = new ArrayList<String>();
+	private MappedByteBuffer window;
+	private long windowStart;
+
+	private UIEventType type;
+	private String key;
+	private long timestampNanos = 0;
+
+	public UIEventTraceReader(String path) throws IOException {
+		this.file = new RandomAccessFile(path, "r");
+		this.channel = this.file.getChannel();
+		this.size = this.channel.size();
+		map(0);
+		if (this.size < 8 || this.window.getInt() != UIEventTraceWriter.MAGIC) {
+			close();
+			throw new IOException(path + " is not a UI event trace");
+		}
+		int version = this.window.getInt();
+		if (version != UIEventTraceWriter.VERSION) {
+			close();
+			throw new IOException("Unsupported UI event trace version " + version);
+		}
+	}
+
+	// Advances to the next event; returns false at the end of the trace. A truncated or
+	// garbled trace fails with an IOException rather than whatever the buffer threw.
+	public boolean next() throws IOException {
+		long position = this.windowStart + this.window.position();
+		try {
+			return readRecord();
+		} catch (BufferUnderflowException e) {
+			throw corrupt(position, e);
+		} catch (IndexOutOfBoundsException e) {
+			throw corrupt(position, e);
+		} catch (IllegalArgumentException e) {
+			throw corrupt(position, e);
+		}
+	}
+
+	private boolean readRecord() throws IOException {
+		while (true) {
+			long position = this.windowStart + this.window.position();
+			if (position >= this.size) {
+				return false;
+			}
+			if (this.window.remaining() < MAX_RECORD_BYTES && this.windowStart + this.window.limit() < this.size) {
+				map(position);
+			}
+			int code = this.window.get();
+			if (code == UIEventTraceWriter.KEY_DEFINITION) {
+				int keyId = (int) readVarLong();
+				long length = readVarLong();
+				long left = this.size - (this.windowStart + this.window.position());
+				// checked before allocating, so a garbled length can't exhaust the heap
+				if (length < 0 || length > UIEventTraceWriter.MAX_KEY_BYTES || length > left) {
+					throw new IOException("Corrupt trace at byte " + position + ": key length " + length);
+				}
+				byte[] bytes = new byte[(int) length];
+				this.window.get(bytes);
+				if (keyId != this.keys.size()) {
+					throw new IOException("Corrupt trace: key " + keyId + " defined out of order");
+				}
+				this.keys.add(new String(bytes, StandardCharsets.UTF_8));
+				continue;
+			}
+			this.type = UIEventType.fromCode(code);
+			this.timestampNanos += readVarLong();
+			this.key = this.keys.get((int) readVarLong());
+			return true;
+		}
+	}
+
+	public UIEventType getType() {
+		return this.type;
+	}
+
+	public String getKey() {
+		return this.key;
+	}
+
+	// Nanoseconds since the start of the trace
+	public long getTimestampNanos() {
+		return this.timestampNanos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.file.close();
+	}
+
+	private static IOException corrupt(long position, RuntimeException cause) {
+		return new IOException("Corrupt trace at byte " + position + ": " + cause, cause);
+	}
+
+	private void map(long position) throws IOException {
+		this.windowStart = position;
+		this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, position,
+				Math.min(WINDOW_BYTES, this.size - position));
+	}
+
+	private long readVarLong() {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = this.window.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+}
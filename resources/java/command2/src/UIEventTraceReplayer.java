@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+// Replays a recorded UI event trace against a UIEventsManager and reports the achieved
+// throughput and latency percentiles. Latency is measured from when an event was due,
+// not from when we got round to sending it, so falling behind schedule shows up in the
+// numbers instead of quietly slowing the replay down.
+//
+// Usage: java UIEventTraceReplayer trace.bin [original | speed <factor> | rate <events/s>]
+public class UIEventTraceReplayer {
+	private final UIEventsManager eventManager;
+
+	public UIEventTraceReplayer(UIEventsManager eventManager) {
+		this.eventManager = eventManager;
+	}
+
+	// Wires up the standard menu and toolbar commands (as in GUIManualTest) against documentOperations
+	public static UIEventTraceReplayer forDocument(IDocumentOperations documentOperations, String fileName) {
+		UIEventsManager eventManager = new UIEventsManager();
+		eventManager.addMenuCommand("open", new MenuItemOpen(documentOperations, fileName));
+		eventManager.addMenuCommand("close", new MenuItemClose(documentOperations, fileName));
+		eventManager.addMenuCommand("cut", new MenuItemCut(documentOperations));
+		eventManager.addMenuCommand("paste", new MenuItemPaste(documentOperations));
+		eventManager.addToolBarCommand("open", new ToolBarItemOpen(documentOperations, fileName));
+		eventManager.addToolBarCommand("close", new ToolBarItemClose(documentOperations, fileName));
+		eventManager.addToolBarCommand("cut", new ToolBarItemCut(documentOperations));
+		eventManager.addToolBarCommand("paste", new ToolBarItemPaste(documentOperations));
+		return new UIEventTraceReplayer(eventManager);
+	}
+
+	// Replays with the recorded gaps between events divided by speed (1 = original speed)
+	public Report replayAtSpeed(String tracePath, double speed) throws IOException {
+		if (speed <= 0) {
+			throw new IllegalArgumentException("speed must be positive");
+		}
+		return replay(tracePath, speed, 0);
+	}
+
+	// Ignores recorded timestamps and sends events at a fixed rate (open loop)
+	public Report replayAtRate(String tracePath, double eventsPerSecond) throws IOException {
+		if (eventsPerSecond <= 0) {
+			throw new IllegalArgumentException("eventsPerSecond must be positive");
+		}
+		return replay(tracePath, 0, eventsPerSecond);
+	}
+
+	private Report replay(String tracePath, double speed, double eventsPerSecond) throws IOException {
+		LatencyHistogram latencies = new LatencyHistogram();
+		UIEventTraceReader reader = new UIEventTraceReader(tracePath);
+		long events = 0;
+		long start = System.nanoTime();
+		try {
+			while (reader.next()) {
+				long due = start + (eventsPerSecond > 0
+						? (long) (events * 1e9 / eventsPerSecond)
+						: (long) (reader.getTimestampNanos() / speed));
+				long wait;
+				while ((wait = due - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+				}
+				dispatch(reader.getType(), reader.getKey());
+				latencies.record(System.nanoTime() - due);
+				events++;
+			}
+		} finally {
+			reader.close();
+		}
+		return new Report(events, System.nanoTime() - start, latencies);
+	}
+
+	private void dispatch(UIEventType type, String key) {
+		switch (type) {
+			case MENU_PRESS: this.eventManager.handleMenuPressEvent(key); break;
+			case TOOLBAR_PRESS: this.eventManager.handleToolBarPressEvent(key); break;
+			case UNDO_MENU_PRESS: this.eventManager.handleUndoMenuPressEvent(key); break;
+			case UNDO_TOOLBAR_PRESS: this.eventManager.handleUndoToolBarPressEvent(key); break;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		String mode = args.length > 1 ? args[1] : "original";
+		boolean needsValue = mode.equals("rate") || mode.equals("speed");
+		if (args.length < 1 || (needsValue && args.length < 3)) {
+			System.err.println("Usage: java UIEventTraceReplayer trace.bin [original | speed <factor> | rate <events/s>]");
+			System.exit(1);
+		}
+		UIEventTraceReplayer replayer = forDocument(new DocumentOperations(), "myfile.txt");
+		Report report;
+		if (mode.equals("rate")) {
+			report = replayer.replayAtRate(args[0], Double.parseDouble(args[2]));
+		} else if (mode.equals("speed")) {
+			report = replayer.replayAtSpeed(args[0], Double.parseDouble(args[2]));
+		} else {
+			report = replayer.replayAtSpeed(args[0], 1);
+		}
+		System.out.println(report);
+	}
+
+	public static class Report {
+		private final long events;
+		private final long elapsedNanos;
+		private final LatencyHistogram latencies;
+
+		Report(long events, long elapsedNanos, LatencyHistogram latencies) {
+			this.events = events;
+			this.elapsedNanos = elapsedNanos;
+			this.latencies = latencies;
+		}
+
+		public long getEvents() {
+			return this.events;
+		}
+
+		public long getElapsedNanos() {
+			return this.elapsedNanos;
+		}
+
+		public double getEventsPerSecond() {
+			return this.elapsedNanos == 0 ? 0 : this.events * 1e9 / this.elapsedNanos;
+		}
+
+		// Approximate (within 1/8th) latency at the given percentile, in nanoseconds
+		public long getLatencyNanos(double percentile) {
+			return this.latencies.percentile(percentile);
+		}
+
+		public long getMaxLatencyNanos() {
+			return this.latencies.max;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d events in %.1fms (%.0f events/s); latency us p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+					this.events, this.elapsedNanos / 1e6, getEventsPerSecond(),
+					getLatencyNanos(50) / 1e3, getLatencyNanos(90) / 1e3, getLatencyNanos(99) / 1e3,
+					getLatencyNanos(99.9) / 1e3, getMaxLatencyNanos() / 1e3);
+		}
+	}
+
+	// Fixed-size log-linear histogram: 8 sub-buckets per power of two, so it doesn't grow
+	// with the length of the trace
+	static class LatencyHistogram {
+		private static final int SUB_BUCKET_BITS = 3;
+		private final long[] counts = new long[64 << SUB_BUCKET_BITS];
+		private long total = 0;
+		private long max = 0;
+
+		void record(long nanos) {
+			nanos = Math.max(nanos, 0);
+			this.counts[index(nanos)]++;
+			this.total++;
+			this.max = Math.max(this.max, nanos);
+		}
+
+		long percentile(double percentile) {
+			if (this.total == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(this.total * percentile / 100.0));
+			long seen = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				seen += this.counts[i];
+				if (seen >= rank) {
+					return Math.min(upperBound(i), this.max);
+				}
+			}
+			return this.max;
+		}
+
+		private static int index(long nanos) {
+			if (nanos < (1 << SUB_BUCKET_BITS)) {
+				return (int) nanos;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+			int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+			return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+		}
+
+		private static long upperBound(int index) {
+			if (index < (1 << SUB_BUCKET_BITS)) {
+				return index;
+			}
+			int exponent = (index >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+			long subBucket = index & ((1 << SUB_BUCKET_BITS) - 1);
+			long lower = (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+			return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+		}
+	}
+}
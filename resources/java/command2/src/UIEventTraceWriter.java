@@ -0,0 +1,83 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// Writes the binary UI event trace format:
+//
+//   header:  int magic "UIET", int version
+//   records: byte type, then
+//     type 0 (key definition): varint keyId, varint length, UTF-8 bytes
+//     type 1-4 (UIEventType):  varint nanos since the previous event, varint keyId
+//
+// Keys are written once, the first time they're used, so a typical event is 3-4 bytes.
+public class UIEventTraceWriter implements Closeable {
+	static final int MAGIC = 0x55494554; // "UIET"
+	static final int VERSION = 1;
+	static final int KEY_DEFINITION = 0;
+	static final int MAX_KEY_BYTES = 0xFFFF;
+
+	private final DataOutputStream out;
+	private final Map<String, Integer> keyIds = new HashMap<String, Integer>();
+	private final long startNanos;
+	private long lastNanos = 0;
+
+	public UIEventTraceWriter(String path) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+		this.out.writeInt(MAGIC);
+		this.out.writeInt(VERSION);
+		this.startNanos = System.nanoTime();
+	}
+
+	// Records the event as happening now
+	public synchronized void write(UIEventType type, String key) throws IOException {
+		write(type, key, System.nanoTime() - this.startNanos);
+	}
+
+	// Records the event at an explicit offset (nanoseconds) from the start of the trace
+	public synchronized void write(UIEventType type, String key, long timestampNanos) throws IOException {
+		if (timestampNanos < this.lastNanos) {
+			throw new IllegalArgumentException("Trace timestamps must not go backwards");
+		}
+		int keyId = keyIdFor(key);
+		this.out.writeByte(type.getCode());
+		writeVarLong(timestampNanos - this.lastNanos);
+		writeVarLong(keyId);
+		this.lastNanos = timestampNanos;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.out.close();
+	}
+
+	private int keyIdFor(String key) throws IOException {
+		Integer keyId = this.keyIds.get(key);
+		if (keyId != null) {
+			return keyId;
+		}
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_KEY_BYTES) {
+			throw new IllegalArgumentException("Key is too long to trace: " + bytes.length + " bytes");
+		}
+		keyId = this.keyIds.size();
+		this.keyIds.put(key, keyId);
+		this.out.writeByte(KEY_DEFINITION);
+		writeVarLong(keyId);
+		writeVarLong(bytes.length);
+		this.out.write(bytes);
+		return keyId;
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			this.out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		this.out.writeByte((int) value);
+	}
+}
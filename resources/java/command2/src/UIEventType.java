@@ -0,0 +1,23 @@
+// The UIEventsManager entry points a trace can record (see UIEventTraceWriter)
+public enum UIEventType {
+	MENU_PRESS(1), TOOLBAR_PRESS(2), UNDO_MENU_PRESS(3), UNDO_TOOLBAR_PRESS(4);
+
+	private final int code;
+
+	private UIEventType(int code) {
+		this.code = code;
+	}
+
+	public int getCode() {
+		return this.code;
+	}
+
+	public static UIEventType fromCode(int code) {
+		for (UIEventType type : values()) {
+			if (type.code == code) {
+				return type;
+			}
+		}
+		throw new IllegalArgumentException("Unknown UI event type " + code);
+	}
+}
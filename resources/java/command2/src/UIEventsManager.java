@@ -16,28 +16,45 @@ public class UIEventsManager {
 	public void handleMenuPressEvent(String key) {
 		ICommand menuCommand = this.menuCommandsMap.get(key);
 		if (menuCommand != null) {
-			menuCommand.execute();
+			dispatch(menuCommand, "menu", key, false);
 		}
 	}
 	
 	public void handleUndoMenuPressEvent(String key) {
 		ICommand menuCommand = this.menuCommandsMap.get(key);
 		if (menuCommand != null) {
-			menuCommand.undo();
+			dispatch(menuCommand, "menu", key, true);
 		}
 	}
 	
 	public void handleToolBarPressEvent(String key) {
 		ICommand toolbarCommand = this.toolBarCommandsMap.get(key);
 		if (toolbarCommand != null) {
-			toolbarCommand.execute();
+			dispatch(toolbarCommand, "toolbar", key, false);
 		}
 	}
 	
 	public void handleUndoToolBarPressEvent(String key) {
 		ICommand toolbarCommand = this.toolBarCommandsMap.get(key);
 		if (toolbarCommand != null) {
-			toolbarCommand.undo();
+			dispatch(toolbarCommand, "toolbar", key, true);
+		}
+	}
+	
+	private void dispatch(ICommand command, String source, String key, boolean undo) {
+		UIEventDispatchEvent event = new UIEventDispatchEvent();
+		event.begin();
+		if (undo) {
+			command.undo();
+		} else {
+			command.execute();
+		}
+		if (event.shouldCommit()) {
+			event.source = source;
+			event.key = key;
+			event.undo = undo;
+			event.command = command.getClass();
+			event.commit();
 		}
 	}
 }
@@ -0,0 +1,56 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// UIEventsRecorder decorates a UIEventsManager: every press event is written to a trace
+// (see UIEventTraceWriter) and then handed on to the wrapped manager unchanged.
+public class UIEventsRecorder extends UIEventsManager {
+	private final UIEventsManager eventManager;
+	private final UIEventTraceWriter trace;
+
+	public UIEventsRecorder(UIEventsManager eventManager, UIEventTraceWriter trace) {
+		this.eventManager = eventManager;
+		this.trace = trace;
+	}
+
+	@Override
+	public void addMenuCommand(String key, ICommand menuCommand) {
+		this.eventManager.addMenuCommand(key, menuCommand);
+	}
+
+	@Override
+	public void addToolBarCommand(String key, ICommand toolbarCommand) {
+		this.eventManager.addToolBarCommand(key, toolbarCommand);
+	}
+
+	@Override
+	public void handleMenuPressEvent(String key) {
+		record(UIEventType.MENU_PRESS, key);
+		this.eventManager.handleMenuPressEvent(key);
+	}
+
+	@Override
+	public void handleUndoMenuPressEvent(String key) {
+		record(UIEventType.UNDO_MENU_PRESS, key);
+		this.eventManager.handleUndoMenuPressEvent(key);
+	}
+
+	@Override
+	public void handleToolBarPressEvent(String key) {
+		record(UIEventType.TOOLBAR_PRESS, key);
+		this.eventManager.handleToolBarPressEvent(key);
+	}
+
+	@Override
+	public void handleUndoToolBarPressEvent(String key) {
+		record(UIEventType.UNDO_TOOLBAR_PRESS, key);
+		this.eventManager.handleUndoToolBarPressEvent(key);
+	}
+
+	private void record(UIEventType type, String key) {
+		try {
+			this.trace.write(type, key);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not record UI event", e);
+		}
+	}
+}
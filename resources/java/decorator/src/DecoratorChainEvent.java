@@ -0,0 +1,25 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// JFR span around a whole getPrice() chain, recorded by the outermost RacketDecorator
+@Name("patterns.DecoratorChain")
+@Label("Decorator Chain")
+@Category({"Design Patterns", "Decorator"})
+@Description("Evaluation of getPrice() through a chain of RacketDecorators")
+@Enabled(false)
+@StackTrace(false)
+class DecoratorChainEvent extends Event {
+	@Label("Outermost Decorator")
+	Class<?> decorator;
+
+	@Label("Layers")
+	int layers;
+
+	@Label("Price")
+	double price;
+}
@@ -1,6 +1,14 @@
 
 public abstract class RacketDecorator implements Racket {
 
+	// How deep the current thread is inside getPrice() chains; only kept while tracing
+	private static final ThreadLocal<int[]> nesting = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
 	protected Racket racket;
 	protected double price;
 	
@@ -10,7 +18,40 @@ public abstract class RacketDecorator implements Racket {
 	
 	@Override
 	public double getPrice() {
-		return racket.getPrice() + price;
+		DecoratorChainEvent event = new DecoratorChainEvent();
+		if (!event.isEnabled()) {
+			return racket.getPrice() + price;
+		}
+		// One span per chain: only the outermost decorator records it
+		int[] depth = nesting.get();
+		if (depth[0]++ > 0) {
+			try {
+				return racket.getPrice() + price;
+			} finally {
+				depth[0]--;
+			}
+		}
+		event.begin();
+		try {
+			double total = racket.getPrice() + price;
+			if (event.shouldCommit()) {
+				event.decorator = getClass();
+				event.layers = layers();
+				event.price = total;
+				event.commit();
+			}
+			return total;
+		} finally {
+			depth[0]--;
+		}
+	}
+	
+	private int layers() {
+		int layers = 1;
+		for (Racket inner = racket; inner instanceof RacketDecorator; inner = ((RacketDecorator) inner).racket) {
+			layers++;
+		}
+		return layers;
 	}
 
 }
@@ -1,5 +1,13 @@
 import static org.junit.Assert.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -44,4 +52,23 @@ public class RacketTests {
 		assertEquals("Should wrap with multiple decorators and adding all to price", 
 				146.00, wrappedAgain.getPrice(), 0.01);
 	}
+
+	@Test
+	public void testTracesOneSpanPerDecoratorChain() throws Exception {
+		RacketDecorator decorator = new WilsonProOvergripDecorator( new VSGutStringDecorator(racket) );
+		Path dump = Files.createTempFile("racket", ".jfr");
+		Recording recording = new Recording();
+		recording.setDestination(dump);
+		recording.enable("patterns.DecoratorChain").withoutThreshold();
+		recording.start();
+		double price = decorator.getPrice();
+		recording.stop();
+		recording.close();
+		List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+		Files.delete(dump);
+		assertEquals(143.00, price, 0.01);
+		assertEquals(1, events.size());
+		assertEquals(2, events.get(0).getInt("layers"));
+		assertEquals(143.00, events.get(0).getDouble("price"), 0.01);
+	}
 }
@@ -1,43 +1,155 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 class AudioInputStream {}
 
 public abstract class AudioDecoder {
 	protected String filePath;
 	protected INativeDecoder decoder;
+	protected DecodedAudioCache cache = null;
+	protected FrameIndex frameIndex = null;
+	protected PCMSink sink = null;
+	protected DecodeGate decodeGate = null;
 	
 	public AudioDecoder(INativeDecoder decoder, String pathToAudioFile) {
 		this.filePath = pathToAudioFile;
 		this.decoder = decoder;
 	}
 	public abstract AudioInputStream loadStream();
-	public abstract void decode(AudioInputStream ais);
+	public abstract byte[] decode(AudioInputStream ais);
+	
+	// Optional; when set, a cache hit skips loadStream() and decode() entirely
+	public void setCache(DecodedAudioCache cache) {
+		this.cache = cache;
+	}
+	
+	// Where output() sends decoded PCM by default
+	public void setSink(PCMSink sink) {
+		this.sink = sink;
+	}
+	
+	// Runs the decode() phase of play() in place of calling it directly, whatever the subclass does
+	public void setDecodeGate(DecodeGate decodeGate) {
+		this.decodeGate = decodeGate;
+	}
+	
+	// Formats that can be seeked return a scanner for their frame headers
+	protected FrameScanner frameScanner() {
+		return null;
+	}
+	
+	// Returns the stream mapped from the frame playing at the given time onwards.
+	// The frame index is built (or loaded from its sidecar) the first time through.
+	public ByteBuffer seek(long millis) throws IOException {
+		FrameScanner scanner = frameScanner();
+		if (scanner == null) {
+			throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support seeking");
+		}
+		if (this.frameIndex == null || this.frameIndex.isStale()) {
+			this.frameIndex = FrameIndex.load(this.filePath, scanner);
+		}
+		int frame = this.frameIndex.frameAt(millis);
+		if (frame < 0) {
+			throw new IOException("No frames found in " + this.filePath);
+		}
+		return this.frameIndex.map(frame);
+	}
 	
 	// Hooks
 	public void beforeDecode(){}
 	public void afterDecode(){}
+	public void output(ByteBuffer pcm){
+		if (this.sink != null) {
+			this.sink.write(pcm);
+		}
+	}
 	
 	public void play() {
+		TemplateMetrics.PhaseTimers timers = TemplateMetrics.timersFor(this);
+		TemplatePhaseEvent phase;
+		// Taken once, before loadStream(), so if the file is edited mid-decode the PCM is
+		// still filed under the version it was decoded from
+		DecodedAudioCache.Key key = null;
+		ByteBuffer cached = null;
+		if (this.cache != null) {
+			key = DecodedAudioCache.keyFor(this.filePath);
+			cached = this.cache.get(key);
+		}
+		// Cache lookups and stores aren't part of any phase, so the clock starts after them
+		long t = timers != null ? System.nanoTime() : 0;
+		if (cached != null) {
+			phase = TemplateMetrics.beginPhase();
+			beforeDecode();
+			t = TemplateMetrics.lap(timers, phase, this, TemplateMetrics.Phase.BEFORE_DECODE, t);
+			phase = TemplateMetrics.beginPhase();
+			output(cached);
+			t = TemplateMetrics.lap(timers, phase, this, TemplateMetrics.Phase.OUTPUT, t);
+			phase = TemplateMetrics.beginPhase();
+			afterDecode();
+			TemplateMetrics.lap(timers, phase, this, TemplateMetrics.Phase.AFTER_DECODE, t);
+			return;
+		}
+		phase = TemplateMetrics.beginPhase();
 		AudioInputStream ais = loadStream();
+		t = TemplateMetrics.lap(timers, phase, this, TemplateMetrics.Phase.LOAD_STREAM, t);
+		phase = TemplateMetrics.beginPhase();
 		beforeDecode();
-		decode(ais);
+		t = TemplateMetrics.lap(timers, phase, this, TemplateMetrics.Phase.BEFORE_DECODE, t);
+		phase = TemplateMetrics.beginPhase();
+		byte[] pcm = gatedDecode(ais);
+		t = TemplateMetrics.lap(timers, phase, this, TemplateMetrics.Phase.DECODE, t);
+		if (pcm != null) {
+			if (timers != null) {
+				timers.addBytesDecoded(pcm.length);
+			}
+			if (this.cache != null) {
+				this.cache.put(key, pcm);
+				t = timers != null ? System.nanoTime() : 0;
+			}
+			phase = TemplateMetrics.beginPhase();
+			output(ByteBuffer.wrap(pcm));
+			t = TemplateMetrics.lap(timers, phase, this, TemplateMetrics.Phase.OUTPUT, t);
+		}
+		phase = TemplateMetrics.beginPhase();
 		afterDecode();
+		TemplateMetrics.lap(timers, phase, this, TemplateMetrics.Phase.AFTER_DECODE, t);
 	}
+	
+	private byte[] gatedDecode(AudioInputStream ais) {
+		DecodeGate gate = this.decodeGate;
+		if (gate == null) {
+			return decode(ais);
+		}
+		return gate.decode(this, ais);
+	}
+}
+
+interface DecodeGate {
+	// Must end up calling decoder.decode(ais) exactly once and return its result
+	public byte[] decode(AudioDecoder decoder, AudioInputStream ais);
+}
+
+interface PCMSink {
+	public void write(ByteBuffer pcm);
 }
 
 interface INativeDecoder {
-	public void decode(AudioInputStream ais);
+	// Returns the decoded PCM samples
+	public byte[] decode(AudioInputStream ais);
 }
 class NativeAACDecoder implements INativeDecoder {
-	public void decode(AudioInputStream ais) {
+	public byte[] decode(AudioInputStream ais) {
 		// ... complex decode implementation omitted
 		System.out.println("NativeAACDecoder decoding audio stream...");
+		return new byte[0];
 	}
 }
 
 class NativeMP3Decoder implements INativeDecoder {
-	public void decode(AudioInputStream ais) {
+	public byte[] decode(AudioInputStream ais) {
 		// ... complex decode implementation omitted
 		System.out.println("NativeMP3Decoder decoding audio stream...");
+		return new byte[0];
 	}
 }
 
@@ -54,8 +166,13 @@ class AACDecoder extends AudioDecoder {
 	}
 
 	@Override
-	public void decode(AudioInputStream ais) {
-		this.decoder.decode(ais);
+	public byte[] decode(AudioInputStream ais) {
+		return this.decoder.decode(ais);
+	}
+	
+	@Override
+	protected FrameScanner frameScanner() {
+		return new ADTSFrameScanner();
 	}
 	
 	public void beforeDecode(){
@@ -73,8 +190,8 @@ class MP3Decoder extends AudioDecoder {
 	}
 
 	@Override
-	public void decode(AudioInputStream ais) {
-		this.decoder.decode(ais);
+	public byte[] decode(AudioInputStream ais) {
+		return this.decoder.decode(ais);
 	}
 	
 	@Override
@@ -83,6 +200,11 @@ class MP3Decoder extends AudioDecoder {
 		return null;
 	}
 	
+	@Override
+	protected FrameScanner frameScanner() {
+		return new MP3FrameScanner();
+	}
+	
 	public void beforeDecode(){
 		System.out.println("MP3 staring...");
 	}
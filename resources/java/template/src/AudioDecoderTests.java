@@ -1,5 +1,29 @@
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -21,6 +45,7 @@ public class AudioDecoderTests {
 	public void tearDown() throws Exception {
 		mockNativeMP3Decoder = null;
 		mockNativeAACDecoder = null;
+		TemplateMetrics.setEnabled(false);
 	}
 
 	@Test
@@ -36,4 +61,466 @@ public class AudioDecoderTests {
 		aacDecoder.play();
 		verify(mockNativeAACDecoder, times(1)).decode(null);
 	}
+
+	@Test
+	public void testCacheHitSkipsDecode() {
+		when(mockNativeMP3Decoder.decode(null)).thenReturn(new byte[] {1, 2, 3, 4});
+		DecodedAudioCache cache = new DecodedAudioCache(1024);
+		MP3Decoder mp3Decoder = new MP3Decoder(mockNativeMP3Decoder, "my_song.mp3");
+		mp3Decoder.setCache(cache);
+		mp3Decoder.play();
+		mp3Decoder.play();
+		verify(mockNativeMP3Decoder, times(1)).decode(null);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(4, cache.getSizeInBytes());
+	}
+
+	@Test
+	public void testCacheEvictsLeastRecentlyUsed() {
+		DecodedAudioCache cache = new DecodedAudioCache(8);
+		cache.put("a.mp3", new byte[4]);
+		cache.put("b.mp3", new byte[4]);
+		cache.get("a.mp3");
+		cache.put("c.mp3", new byte[4]);
+		assertNotNull(cache.get("a.mp3"));
+		assertNull(cache.get("b.mp3"));
+		assertNotNull(cache.get("c.mp3"));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(8, cache.getSizeInBytes());
+	}
+
+	@Test
+	public void testCacheMissesAfterFileIsRewritten() throws IOException {
+		File song = writeMP3Frames(File.createTempFile("cached", ".mp3"), 4);
+		try {
+			when(mockNativeMP3Decoder.decode(null)).thenReturn(new byte[] {1, 2, 3, 4});
+			DecodedAudioCache cache = new DecodedAudioCache(1024);
+			MP3Decoder mp3Decoder = new MP3Decoder(mockNativeMP3Decoder, song.getPath());
+			mp3Decoder.setCache(cache);
+			mp3Decoder.play();
+			mp3Decoder.play();
+			writeMP3Frames(song, 6);
+			mp3Decoder.play();
+			verify(mockNativeMP3Decoder, times(2)).decode(null);
+			assertEquals(1, cache.getHitCount());
+			assertEquals(2, cache.getMissCount());
+		} finally {
+			delete(song);
+		}
+	}
+
+	@Test
+	public void testFileRewrittenDuringDecodeIsNotCachedAsTheNewVersion() throws IOException {
+		final File song = writeMP3Frames(File.createTempFile("cached", ".mp3"), 4);
+		try {
+			INativeDecoder editingDecoder = new INativeDecoder() {
+				public byte[] decode(AudioInputStream ais) {
+					try {
+						writeMP3Frames(song, 6); // someone saves a new version mid-decode
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+					return new byte[] {1, 2, 3, 4};
+				}
+			};
+			DecodedAudioCache cache = new DecodedAudioCache(1024);
+			MP3Decoder mp3Decoder = new MP3Decoder(editingDecoder, song.getPath());
+			mp3Decoder.setCache(cache);
+			mp3Decoder.play();
+			assertNull(cache.get(song.getPath()));
+		} finally {
+			delete(song);
+		}
+	}
+
+	@Test
+	public void testSeeksMP3sThroughFrameIndex() throws IOException {
+		File song = writeMP3Frames(File.createTempFile("seek", ".mp3"), 10);
+		try {
+			MP3Decoder mp3Decoder = new MP3Decoder(mockNativeMP3Decoder, song.getPath());
+			// 128kbps/44.1kHz frames are 417 bytes and 1152 samples (~26ms) long
+			ByteBuffer fromStart = mp3Decoder.seek(0);
+			assertEquals(417 * 10, fromStart.remaining());
+			ByteBuffer fromFrame3 = mp3Decoder.seek(100);
+			assertEquals(417 * 7, fromFrame3.remaining());
+			assertEquals((byte) 0xFF, fromFrame3.get(0));
+			assertTrue(new File(song.getPath() + FrameIndex.SIDECAR_SUFFIX).isFile());
+		} finally {
+			delete(song);
+		}
+	}
+
+	@Test
+	public void testSeeksWhenSidecarCannotBeWritten() throws IOException {
+		File song = writeMP3Frames(File.createTempFile("unwritable", ".mp3"), 10);
+		// even root can't replace a non-empty directory, so renaming the sidecar into place fails
+		File sidecar = new File(song.getPath() + FrameIndex.SIDECAR_SUFFIX);
+		File blocker = new File(sidecar, "blocker");
+		try {
+			assertTrue(sidecar.mkdir());
+			assertTrue(blocker.createNewFile());
+			MP3Decoder mp3Decoder = new MP3Decoder(mockNativeMP3Decoder, song.getPath());
+			assertEquals(417 * 7, mp3Decoder.seek(100).remaining());
+			assertFalse(new File(sidecar.getPath() + ".tmp").exists());
+		} finally {
+			blocker.delete();
+			delete(song);
+		}
+	}
+
+	@Test
+	public void testFrameIndexRebuiltWhenSourceChanges() throws IOException {
+		File song = writeMP3Frames(File.createTempFile("reindex", ".mp3"), 4);
+		try {
+			assertEquals(4, FrameIndex.load(song.getPath(), new MP3FrameScanner()).getFrameCount());
+			assertEquals(4, FrameIndex.load(song.getPath(), new MP3FrameScanner()).getFrameCount());
+			writeMP3Frames(song, 6);
+			assertEquals(6, FrameIndex.load(song.getPath(), new MP3FrameScanner()).getFrameCount());
+		} finally {
+			delete(song);
+		}
+	}
+
+	@Test
+	public void testPlaybackServiceLimitsConcurrentDecodes() throws InterruptedException {
+		INativeDecoder slowDecoder = new INativeDecoder() {
+			public byte[] decode(AudioInputStream ais) {
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return new byte[16];
+			}
+		};
+		PCMSink client = mock(PCMSink.class);
+		PlaybackService service = new PlaybackService(2, 4, 1000);
+		PlaybackSession[] sessions = new PlaybackSession[20];
+		for (int i = 0; i < sessions.length; i++) {
+			sessions[i] = service.play(new MP3Decoder(slowDecoder, "song" + i + ".mp3"), client, 0);
+		}
+		for (PlaybackSession session : sessions) {
+			assertTrue(session.awaitCompletion(5, TimeUnit.SECONDS));
+		}
+		service.shutdown();
+		assertEquals(20, service.getCompletedStreams());
+		assertTrue(service.getPeakConcurrentDecodes() <= 2);
+		verify(client, times(20)).write(any(ByteBuffer.class));
+	}
+
+	@Test
+	public void testPlaybackServiceDropsClientsThatFallBehind() throws InterruptedException {
+		PCMSink stuckClient = new PCMSink() {
+			public void write(ByteBuffer pcm) {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		when(mockNativeMP3Decoder.decode(null)).thenReturn(new byte[4]);
+		AudioDecoder chattyDecoder = new MP3Decoder(mockNativeMP3Decoder, "my_song.mp3") {
+			@Override
+			public void output(ByteBuffer pcm) {
+				for (int i = 0; i < 10; i++) {
+					super.output(ByteBuffer.allocate(4));
+				}
+			}
+		};
+		PlaybackService service = new PlaybackService(1, 1, 20);
+		PlaybackSession session = service.play(chattyDecoder, stuckClient, 0);
+		assertTrue(session.awaitCompletion(5, TimeUnit.SECONDS));
+		service.shutdown();
+		assertTrue(session.isDropped());
+		assertEquals(1, service.getDroppedStreams());
+	}
+
+	@Test
+	public void testRecordsPhaseTimingsWhenEnabled() throws Exception {
+		when(mockNativeAACDecoder.decode(null)).thenReturn(new byte[100]);
+		AACDecoder aacDecoder = new AACDecoder(mockNativeAACDecoder, "my_song.aac");
+		TemplateMetrics.PhaseTimers timers = TemplateMetrics.timersFor(aacDecoder);
+		assertNull(timers);
+		TemplateMetrics.setEnabled(true);
+		timers = TemplateMetrics.timersFor(aacDecoder);
+		timers.reset();
+		aacDecoder.play();
+		aacDecoder.play();
+		assertEquals(2, timers.getCount(TemplateMetrics.Phase.LOAD_STREAM));
+		assertEquals(2, timers.getCount(TemplateMetrics.Phase.DECODE));
+		assertEquals(2, timers.getCount(TemplateMetrics.Phase.AFTER_DECODE));
+		assertEquals(200, timers.getBytesDecoded());
+		ObjectName name = new ObjectName("TemplateMetrics:type=Phases,name=" + ObjectName.quote(AACDecoder.class.getName()));
+		assertEquals(200L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "BytesDecoded"));
+	}
+
+	@Test
+	public void testRecordsTemplateMethodPhases() {
+		TemplateMetrics.setEnabled(true);
+		ConcreteClass2 template = new ConcreteClass2();
+		TemplateMetrics.PhaseTimers timers = TemplateMetrics.timersFor(template);
+		timers.reset();
+		template.templateMethod();
+		assertEquals(1, timers.getCount(TemplateMetrics.Phase.HOOK1));
+		assertEquals(1, timers.getCount(TemplateMetrics.Phase.HOOK2));
+		assertEquals(0, timers.getCount(TemplateMetrics.Phase.DECODE));
+	}
+
+	@Test
+	public void testPlaybackServiceCountsFailedStreams() throws InterruptedException {
+		RuntimeException failure = new IllegalStateException("corrupt stream");
+		when(mockNativeMP3Decoder.decode(null)).thenThrow(failure);
+		PlaybackService service = new PlaybackService(1, 1, 1000);
+		PlaybackSession session = service.play(new MP3Decoder(mockNativeMP3Decoder, "my_song.mp3"), mock(PCMSink.class), 0);
+		assertTrue(session.awaitCompletion(5, TimeUnit.SECONDS));
+		service.shutdown();
+		assertSame(failure, session.getFailure());
+		assertEquals(1, service.getFailedStreams());
+		assertEquals(0, service.getCompletedStreams());
+		assertEquals(0, service.getDroppedStreams());
+	}
+
+	@Test
+	public void testPlaybackServiceDoesNotHangWhenClientThrows() throws InterruptedException {
+		PCMSink brokenClient = new PCMSink() {
+			public void write(ByteBuffer pcm) {
+				throw new IllegalStateException("client went away");
+			}
+		};
+		when(mockNativeMP3Decoder.decode(null)).thenReturn(new byte[4]);
+		AudioDecoder chattyDecoder = new MP3Decoder(mockNativeMP3Decoder, "my_song.mp3") {
+			@Override
+			public void output(ByteBuffer pcm) {
+				for (int i = 0; i < 10; i++) {
+					super.output(ByteBuffer.allocate(4));
+				}
+			}
+		};
+		PlaybackService service = new PlaybackService(1, 1, 20);
+		PlaybackSession session = service.play(chattyDecoder, brokenClient, 0);
+		assertTrue(session.awaitCompletion(5, TimeUnit.SECONDS));
+		service.shutdown();
+		// both the decode and delivery threads must have finished
+		assertTrue(service.awaitTermination(5, TimeUnit.SECONDS));
+		assertNotNull(session.getFailure());
+		assertEquals(1, service.getFailedStreams());
+	}
+
+	@Test
+	public void testPlaybackSessionCompletesOnlyOnceDecoderIsReleased() throws InterruptedException {
+		PCMSink brokenClient = new PCMSink() {
+			public void write(ByteBuffer pcm) {
+				throw new IllegalStateException("client went away");
+			}
+		};
+		when(mockNativeMP3Decoder.decode(null)).thenReturn(new byte[4]);
+		AudioDecoder chattyDecoder = new MP3Decoder(mockNativeMP3Decoder, "my_song.mp3") {
+			@Override
+			public void output(ByteBuffer pcm) {
+				for (int i = 0; i < 10; i++) {
+					super.output(ByteBuffer.allocate(4));
+				}
+			}
+		};
+		// a stall timeout far longer than we wait, so a decoder left blocked in write() shows
+		PlaybackService service = new PlaybackService(1, 1, 60000);
+		assertTrue(service.play(chattyDecoder, brokenClient, 0).awaitCompletion(5, TimeUnit.SECONDS));
+		assertTrue(service.play(chattyDecoder, brokenClient, 0).awaitCompletion(5, TimeUnit.SECONDS));
+		service.shutdown();
+		assertEquals(2, service.getFailedStreams());
+	}
+
+	@Test
+	public void testPlaybackServiceDecodesOnItsOwnPool() throws InterruptedException {
+		final AtomicReference<String> decodeThread = new AtomicReference<String>();
+		INativeDecoder nativeDecoder = new INativeDecoder() {
+			public byte[] decode(AudioInputStream ais) {
+				decodeThread.set(Thread.currentThread().getName());
+				return new byte[4];
+			}
+		};
+		ExecutorService streams = Executors.newFixedThreadPool(2);
+		PlaybackService service = new PlaybackService(1, 4, 1000, streams);
+		assertEquals(PlaybackService.StreamThreads.SUPPLIED, service.getStreamThreads());
+		PlaybackSession session = service.play(new MP3Decoder(nativeDecoder, "my_song.mp3"), mock(PCMSink.class), 0);
+		assertTrue(session.awaitCompletion(5, TimeUnit.SECONDS));
+		service.shutdown();
+		assertTrue(streams.isShutdown());
+		assertTrue(decodeThread.get().startsWith("playback-decode-"));
+		assertEquals(1, service.getCompletedStreams());
+	}
+
+	@Test
+	public void testPlaybackServiceGatesDecodeThatBypassesNativeDecoder() throws InterruptedException {
+		PlaybackService service = new PlaybackService(1, 4, 1000);
+		PlaybackSession[] sessions = new PlaybackSession[8];
+		for (int i = 0; i < sessions.length; i++) {
+			// decodes "in Java" without going through this.decoder
+			AudioDecoder decoder = new MP3Decoder(null, "song" + i + ".mp3") {
+				@Override
+				public byte[] decode(AudioInputStream ais) {
+					try {
+						Thread.sleep(5);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return new byte[16];
+				}
+			};
+			sessions[i] = service.play(decoder, mock(PCMSink.class), 0);
+		}
+		for (PlaybackSession session : sessions) {
+			assertTrue(session.awaitCompletion(5, TimeUnit.SECONDS));
+		}
+		service.shutdown();
+		assertEquals(8, service.getCompletedStreams());
+		assertEquals(1, service.getPeakConcurrentDecodes());
+	}
+
+	@Test
+	public void testPlaybackServiceRejectsDecoderThatIsAlreadyPlaying() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		AudioDecoder decoder = new MP3Decoder(null, "my_song.mp3") {
+			@Override
+			public byte[] decode(AudioInputStream ais) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return null;
+			}
+		};
+		PlaybackService service = new PlaybackService(1, 1, 1000);
+		PlaybackSession first = service.play(decoder, mock(PCMSink.class), 0);
+		try {
+			service.play(decoder, mock(PCMSink.class), 0);
+			fail("Expected the second play() of the same decoder to be rejected");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		release.countDown();
+		assertTrue(first.awaitCompletion(5, TimeUnit.SECONDS));
+		// once it's finished the decoder can be played again
+		assertTrue(service.play(decoder, mock(PCMSink.class), 0).awaitCompletion(5, TimeUnit.SECONDS));
+		service.shutdown();
+		assertEquals(2, service.getCompletedStreams());
+	}
+
+	@Test
+	public void testBatchExecutorRunsStagesInOrderPerInstance() {
+		List<AbstractClass> templates = new ArrayList<AbstractClass>();
+		for (int i = 0; i < 100; i++) {
+			templates.add(mock(AbstractClass.class));
+		}
+		new TemplateBatchExecutor(ForkJoinPool.commonPool(),
+				EnumSet.of(TemplateBatchExecutor.Stage.OPERATION1, TemplateBatchExecutor.Stage.OPERATION2), 8)
+				.execute(templates);
+		for (AbstractClass template : templates) {
+			org.mockito.InOrder inOrder = inOrder(template);
+			inOrder.verify(template).hook1();
+			inOrder.verify(template).operation1();
+			inOrder.verify(template).operation2();
+			inOrder.verify(template).hook2();
+		}
+	}
+
+	@Test
+	public void testBatchExecutorSkipsRemainingStagesOfFailedInstance() {
+		AbstractClass failing = mock(AbstractClass.class);
+		AbstractClass healthy = mock(AbstractClass.class);
+		RuntimeException failure = new IllegalStateException("operation1 failed");
+		doThrow(failure).when(failing).operation1();
+		List<AbstractClass> templates = new ArrayList<AbstractClass>();
+		templates.add(failing);
+		templates.add(healthy);
+		try {
+			new TemplateBatchExecutor().execute(templates);
+			fail("Expected the failure to be rethrown");
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+		verify(failing, never()).operation2();
+		verify(failing, never()).hook2();
+		verify(healthy, times(1)).hook2();
+	}
+
+	@Test
+	public void testTracesTemplatePhasesWhenRecording() throws Exception {
+		Path dump = Files.createTempFile("template", ".jfr");
+		Recording recording = new Recording();
+		recording.setDestination(dump);
+		recording.enable("patterns.TemplatePhase").withoutThreshold();
+		recording.start();
+		new ConcreteClass().templateMethod();
+		recording.stop();
+		recording.close();
+		List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+		Files.delete(dump);
+		assertEquals(4, events.size());
+		assertEquals("HOOK1", events.get(0).getString("phase"));
+		assertEquals("HOOK2", events.get(3).getString("phase"));
+	}
+
+	@Test
+	public void testCorruptFrameIndexIsRebuilt() throws IOException {
+		File song = writeMP3Frames(File.createTempFile("corrupt", ".mp3"), 5);
+		try {
+			FrameIndex.load(song.getPath(), new MP3FrameScanner());
+			File sidecar = new File(song.getPath() + FrameIndex.SIDECAR_SUFFIX);
+			// keep the header (including a plausible frame count) but lose the entries
+			RandomAccessFile truncate = new RandomAccessFile(sidecar, "rw");
+			truncate.setLength(40);
+			truncate.close();
+			assertEquals(5, FrameIndex.load(song.getPath(), new MP3FrameScanner()).getFrameCount());
+			assertEquals(32 + 5 * 16, sidecar.length());
+			assertFalse(new File(sidecar.getPath() + ".tmp").exists());
+
+			truncate = new RandomAccessFile(sidecar, "rw");
+			truncate.setLength(6); // cut off mid-header
+			truncate.close();
+			assertEquals(5, FrameIndex.load(song.getPath(), new MP3FrameScanner()).getFrameCount());
+		} finally {
+			delete(song);
+		}
+	}
+
+	@Test
+	public void testBatchExecutorRecordsTemplatePhases() {
+		TemplateMetrics.setEnabled(true);
+		List<ConcreteClass2> templates = new ArrayList<ConcreteClass2>();
+		for (int i = 0; i < 10; i++) {
+			templates.add(new ConcreteClass2());
+		}
+		TemplateMetrics.PhaseTimers timers = TemplateMetrics.timersFor(templates.get(0));
+		timers.reset();
+		new TemplateBatchExecutor().execute(templates);
+		assertEquals(10, timers.getCount(TemplateMetrics.Phase.HOOK1));
+		assertEquals(10, timers.getCount(TemplateMetrics.Phase.OPERATION1));
+		assertEquals(10, timers.getCount(TemplateMetrics.Phase.OPERATION2));
+		assertEquals(10, timers.getCount(TemplateMetrics.Phase.HOOK2));
+	}
+
+	private static File writeMP3Frames(File file, int frames) throws IOException {
+		byte[] frame = new byte[417];
+		frame[0] = (byte) 0xFF;
+		frame[1] = (byte) 0xFB; // MPEG-1 Layer III, no CRC
+		frame[2] = (byte) 0x90; // 128kbps, 44.1kHz, no padding
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			for (int i = 0; i < frames; i++) {
+				out.write(frame);
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static void delete(File song) {
+		new File(song.getPath() + FrameIndex.SIDECAR_SUFFIX).delete();
+		song.delete();
+	}
 }
@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// DecodedAudioCache keeps decoded PCM off-heap (direct buffers) so that short,
+// frequently replayed clips don't have to go through loadStream()/decode() again.
+// Entries are keyed by path + modification time + size, so editing a file on disk
+// simply results in a miss. Eviction is least-recently-used within a byte budget.
+// The file is only stat'ed in keyFor(), outside the lock, so one caller's filesystem
+// calls never hold up every other stream's lookups.
+public class DecodedAudioCache {
+	private final long maxBytes;
+	private long currentBytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	// accessOrder=true makes iteration order least-recently-used first
+	private Map<Key, ByteBuffer> entries = new LinkedHashMap<Key, ByteBuffer>(16, 0.75f, true);
+
+	public DecodedAudioCache(long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("maxBytes must be positive");
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	// Identifies one version of a file with a single stat call (File.lastModified() plus
+	// File.length() would be two). A missing or unreadable file gets 0 for both, like File.
+	public static Key keyFor(String filePath) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(Paths.get(filePath), BasicFileAttributes.class);
+			return new Key(filePath, attributes.lastModifiedTime().toMillis(), attributes.size());
+		} catch (IOException e) {
+			return new Key(filePath, 0, 0);
+		} catch (InvalidPathException e) {
+			return new Key(filePath, 0, 0);
+		}
+	}
+
+	public ByteBuffer get(String filePath) {
+		return get(keyFor(filePath));
+	}
+
+	public void put(String filePath, byte[] pcm) {
+		put(keyFor(filePath), pcm);
+	}
+
+	// Returns a read-only view of the cached PCM, or null on a miss
+	public synchronized ByteBuffer get(Key key) {
+		ByteBuffer pcm = this.entries.get(key);
+		if (pcm == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return pcm.asReadOnlyBuffer();
+	}
+
+	public synchronized void put(Key key, byte[] pcm) {
+		if (pcm == null || pcm.length > this.maxBytes) {
+			return; // never cache something that can't fit
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect(pcm.length);
+		buffer.put(pcm);
+		buffer.flip();
+		ByteBuffer previous = this.entries.put(key, buffer);
+		if (previous != null) {
+			currentBytes -= previous.capacity();
+		}
+		currentBytes += pcm.length;
+		evictToBudget();
+	}
+
+	public synchronized void clear() {
+		this.entries.clear();
+		currentBytes = 0;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	public synchronized long getSizeInBytes() {
+		return currentBytes;
+	}
+
+	public synchronized int getEntryCount() {
+		return this.entries.size();
+	}
+
+	private void evictToBudget() {
+		Iterator<ByteBuffer> eldest = this.entries.values().iterator();
+		while (currentBytes > this.maxBytes && eldest.hasNext()) {
+			currentBytes -= eldest.next().capacity();
+			eldest.remove();
+			evictions++;
+		}
+	}
+
+	public static final class Key {
+		private final String filePath;
+		private final long modified;
+		private final long length;
+
+		private Key(String filePath, long modified, long length) {
+			this.filePath = filePath;
+			this.modified = modified;
+			this.length = length;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return this.modified == key.modified && this.length == key.length
+					&& this.filePath.equals(key.filePath);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = this.filePath.hashCode();
+			hash = 31 * hash + (int) (this.modified ^ (this.modified >>> 32));
+			return 31 * hash + (int) (this.length ^ (this.length >>> 32));
+		}
+	}
+}
@@ -0,0 +1,321 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+// FrameIndex records where every frame of a compressed audio file starts (byte offset)
+// and when it starts (sample position). It's built once by scanning the file and then
+// persisted next to it as a ".idx" sidecar, so later seeks are a binary search plus a
+// memory-mapped read. The sidecar remembers the source's modification time and size,
+// and is rebuilt whenever either changes (or if it can't be read back for any reason).
+public class FrameIndex {
+	public static final String SIDECAR_SUFFIX = ".idx";
+	private static final int MAGIC = 0x46494458; // "FIDX"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 32;
+	private static final int ENTRY_BYTES = 16;
+
+	private final String filePath;
+	private final long sourceModified;
+	private final long sourceLength;
+	private final int sampleRate;
+	private final int frameCount;
+	private final long[] offsets;
+	private final long[] sampleStarts;
+
+	private FrameIndex(String filePath, long sourceModified, long sourceLength,
+			int sampleRate, int frameCount, long[] offsets, long[] sampleStarts) {
+		this.filePath = filePath;
+		this.sourceModified = sourceModified;
+		this.sourceLength = sourceLength;
+		this.sampleRate = sampleRate;
+		this.frameCount = frameCount;
+		this.offsets = offsets;
+		this.sampleStarts = sampleStarts;
+	}
+
+	// Loads the sidecar if it's still valid for the source, otherwise scans and rewrites it
+	public static FrameIndex load(String filePath, FrameScanner scanner) throws IOException {
+		File source = new File(filePath);
+		if (!source.isFile()) {
+			throw new IOException("No such audio file: " + filePath);
+		}
+		File sidecar = new File(filePath + SIDECAR_SUFFIX);
+		if (sidecar.isFile()) {
+			FrameIndex index = null;
+			try {
+				index = read(filePath, sidecar);
+			} catch (IOException e) {
+				// truncated or unreadable sidecar; fall through and rebuild it
+			}
+			if (index != null && !index.isStale()) {
+				return index;
+			}
+		}
+		FrameIndex index = build(filePath, scanner);
+		try {
+			index.write(sidecar);
+		} catch (IOException e) {
+			// read-only directory or media; the index still works, it just isn't persisted
+		}
+		return index;
+	}
+
+	public static FrameIndex build(String filePath, FrameScanner scanner) throws IOException {
+		File source = new File(filePath);
+		long modified = source.lastModified();
+		RandomAccessFile file = new RandomAccessFile(source, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			long[] offsets = new long[64];
+			long[] sampleStarts = new long[64];
+			int count = 0;
+			int sampleRate = 0;
+			long samples = 0;
+			int pos = scanner.firstFrame(data);
+			while (pos + scanner.headerLength() <= data.limit()) {
+				int length = scanner.frameLength(data, pos);
+				if (length <= 0) {
+					pos++; // lost sync, keep hunting for the next header
+					continue;
+				}
+				if (count == offsets.length) {
+					offsets = Arrays.copyOf(offsets, count * 2);
+					sampleStarts = Arrays.copyOf(sampleStarts, count * 2);
+				}
+				if (sampleRate == 0) {
+					sampleRate = scanner.sampleRate(data, pos);
+				}
+				offsets[count] = pos;
+				sampleStarts[count] = samples;
+				count++;
+				samples += scanner.samplesPerFrame(data, pos);
+				pos += length;
+			}
+			return new FrameIndex(filePath, modified, channel.size(), sampleRate, count,
+					Arrays.copyOf(offsets, count), Arrays.copyOf(sampleStarts, count));
+		} finally {
+			file.close();
+		}
+	}
+
+	public boolean isStale() {
+		File source = new File(this.filePath);
+		return source.lastModified() != this.sourceModified || source.length() != this.sourceLength;
+	}
+
+	public int getFrameCount() {
+		return this.frameCount;
+	}
+
+	public int getSampleRate() {
+		return this.sampleRate;
+	}
+
+	public long getFrameOffset(int frame) {
+		return this.offsets[frame];
+	}
+
+	// Returns the frame that is playing at the given time (clamped to the first/last frame)
+	public int frameAt(long millis) {
+		if (this.frameCount == 0) {
+			return -1;
+		}
+		long sample = millis * this.sampleRate / 1000;
+		int found = Arrays.binarySearch(this.sampleStarts, sample);
+		if (found < 0) {
+			found = -found - 2; // insertion point minus one: the frame containing sample
+		}
+		return Math.max(0, Math.min(found, this.frameCount - 1));
+	}
+
+	// Maps the source from the start of the given frame through to the end of the file
+	public ByteBuffer map(int frame) throws IOException {
+		if (frame < 0 || frame >= this.frameCount) {
+			throw new IndexOutOfBoundsException("No frame " + frame + " in " + this.filePath);
+		}
+		RandomAccessFile file = new RandomAccessFile(this.filePath, "r");
+		try {
+			long offset = this.offsets[frame];
+			return file.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, this.sourceLength - offset);
+		} finally {
+			file.close(); // the mapping stays valid after the channel is closed
+		}
+	}
+
+	// Writes to a temporary file and renames it into place, so an interrupted write
+	// never leaves a half-written sidecar behind (nor, if it fails, the temporary file)
+	private void write(File sidecar) throws IOException {
+		File temp = new File(sidecar.getPath() + ".tmp");
+		boolean written = false;
+		try {
+			writeTo(temp);
+			try {
+				Files.move(temp.toPath(), sidecar.toPath(),
+						StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			written = true;
+		} finally {
+			if (!written) {
+				temp.delete();
+			}
+		}
+	}
+
+	private void writeTo(File temp) throws IOException {
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(this.sourceModified);
+			out.writeLong(this.sourceLength);
+			out.writeInt(this.sampleRate);
+			out.writeInt(this.frameCount);
+			for (int i = 0; i < this.frameCount; i++) {
+				out.writeLong(this.offsets[i]);
+				out.writeLong(this.sampleStarts[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	// Returns null if the sidecar isn't one of ours, is from an older version, or its
+	// frame count doesn't match its size
+	private static FrameIndex read(String filePath, File sidecar) throws IOException {
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(sidecar)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			long modified = in.readLong();
+			long length = in.readLong();
+			int sampleRate = in.readInt();
+			int count = in.readInt();
+			if (count < 0 || sidecar.length() != HEADER_BYTES + (long) count * ENTRY_BYTES) {
+				return null;
+			}
+			long[] offsets = new long[count];
+			long[] sampleStarts = new long[count];
+			for (int i = 0; i < count; i++) {
+				offsets[i] = in.readLong();
+				sampleStarts[i] = in.readLong();
+			}
+			return new FrameIndex(filePath, modified, length, sampleRate, count, offsets, sampleStarts);
+		} finally {
+			in.close();
+		}
+	}
+}
+
+// Format specific frame header parsing used while building a FrameIndex
+interface FrameScanner {
+	public int headerLength();
+	public int firstFrame(ByteBuffer data);
+	// Returns the total frame length in bytes, or -1 if there's no valid header at pos
+	public int frameLength(ByteBuffer data, int pos);
+	public int samplesPerFrame(ByteBuffer data, int pos);
+	public int sampleRate(ByteBuffer data, int pos);
+}
+
+// MPEG-1/2/2.5 Layer III
+class MP3FrameScanner implements FrameScanner {
+	private static final int[] MPEG1_BITRATES = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+	private static final int[] MPEG2_BITRATES = {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160};
+	private static final int[] MPEG1_SAMPLE_RATES = {44100, 48000, 32000};
+
+	public int headerLength() {
+		return 4;
+	}
+
+	// Skips a leading ID3v2 tag if there is one
+	public int firstFrame(ByteBuffer data) {
+		if (data.limit() >= 10 && data.get(0) == 'I' && data.get(1) == 'D' && data.get(2) == '3') {
+			int size = ((data.get(6) & 0x7F) << 21) | ((data.get(7) & 0x7F) << 14)
+					| ((data.get(8) & 0x7F) << 7) | (data.get(9) & 0x7F);
+			boolean hasFooter = (data.get(5) & 0x10) != 0;
+			return 10 + size + (hasFooter ? 10 : 0);
+		}
+		return 0;
+	}
+
+	public int frameLength(ByteBuffer data, int pos) {
+		int b1 = data.get(pos + 1) & 0xFF;
+		int b2 = data.get(pos + 2) & 0xFF;
+		if ((data.get(pos) & 0xFF) != 0xFF || (b1 & 0xE0) != 0xE0) {
+			return -1;
+		}
+		int version = (b1 >> 3) & 3;
+		int layer = (b1 >> 1) & 3;
+		int bitrateIndex = (b2 >> 4) & 0xF;
+		int sampleRateIndex = (b2 >> 2) & 3;
+		if (version == 1 || layer != 1 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+			return -1;
+		}
+		int padding = (b2 >> 1) & 1;
+		boolean mpeg1 = version == 3;
+		int bitrate = (mpeg1 ? MPEG1_BITRATES : MPEG2_BITRATES)[bitrateIndex] * 1000;
+		return (mpeg1 ? 144 : 72) * bitrate / sampleRate(data, pos) + padding;
+	}
+
+	public int samplesPerFrame(ByteBuffer data, int pos) {
+		return ((data.get(pos + 1) >> 3) & 3) == 3 ? 1152 : 576;
+	}
+
+	public int sampleRate(ByteBuffer data, int pos) {
+		int version = (data.get(pos + 1) >> 3) & 3;
+		int rate = MPEG1_SAMPLE_RATES[(data.get(pos + 2) >> 2) & 3];
+		return version == 3 ? rate : (version == 2 ? rate / 2 : rate / 4);
+	}
+}
+
+// AAC wrapped in ADTS headers
+class ADTSFrameScanner implements FrameScanner {
+	private static final int[] SAMPLE_RATES = {96000, 88200, 64000, 48000, 44100, 32000,
+			24000, 22050, 16000, 12000, 11025, 8000, 7350};
+
+	public int headerLength() {
+		return 7;
+	}
+
+	public int firstFrame(ByteBuffer data) {
+		return 0;
+	}
+
+	public int frameLength(ByteBuffer data, int pos) {
+		if ((data.get(pos) & 0xFF) != 0xFF || (data.get(pos + 1) & 0xF6) != 0xF0) {
+			return -1;
+		}
+		if (((data.get(pos + 2) >> 2) & 0xF) >= SAMPLE_RATES.length) {
+			return -1;
+		}
+		int length = ((data.get(pos + 3) & 0x03) << 11) | ((data.get(pos + 4) & 0xFF) << 3)
+				| ((data.get(pos + 5) & 0xE0) >> 5);
+		return length < headerLength() ? -1 : length;
+	}
+
+	public int samplesPerFrame(ByteBuffer data, int pos) {
+		return 1024 * ((data.get(pos + 6) & 0x03) + 1);
+	}
+
+	public int sampleRate(ByteBuffer data, int pos) {
+		return SAMPLE_RATES[(data.get(pos + 2) >> 2) & 0xF];
+	}
+}
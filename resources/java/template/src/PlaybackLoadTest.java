@@ -0,0 +1,104 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Manual load test: plays one short clip to each of N simulated local clients at real time.
+// Usage: java PlaybackLoadTest [clients] [maxConcurrentDecodes]
+public class PlaybackLoadTest {
+	// 8kHz, 16-bit mono: 16000 bytes per second, sliced into 20ms chunks
+	private static final int BYTES_PER_SECOND = 16000;
+	private static final int CHUNK_BYTES = BYTES_PER_SECOND / 50;
+
+	public static void main(String[] args) throws InterruptedException {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int maxDecodes = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		final byte[] clip = new byte[BYTES_PER_SECOND / 2]; // every client gets the same half second
+		INativeDecoder nativeDecoder = new INativeDecoder() {
+			public byte[] decode(AudioInputStream ais) {
+				// stand in for CPU bound decoding
+				long checksum = 0;
+				for (int i = 0; i < 200000; i++) {
+					checksum += i ^ (checksum >>> 3);
+				}
+				clip[0] = (byte) checksum;
+				return clip;
+			}
+		};
+		final AtomicLong received = new AtomicLong();
+		final AtomicLong worstGapNanos = new AtomicLong();
+
+		PlaybackService service = new PlaybackService(maxDecodes, 4, 10000);
+		PlaybackSession[] sessions = new PlaybackSession[clients];
+		long start = System.nanoTime();
+		for (int i = 0; i < clients; i++) {
+			sessions[i] = service.play(new ChunkedDecoder(nativeDecoder, "clip" + i + ".mp3"),
+					new PacedClient(received, worstGapNanos), BYTES_PER_SECOND);
+		}
+		for (PlaybackSession session : sessions) {
+			session.awaitCompletion(1, TimeUnit.MINUTES);
+		}
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		service.shutdown();
+
+		System.out.println("Clients:              " + clients);
+		System.out.println("Stream threads:       " + service.getStreamThreads());
+		System.out.println("Completed / dropped / failed: " + service.getCompletedStreams() + " / "
+				+ service.getDroppedStreams() + " / " + service.getFailedStreams());
+		System.out.println("Peak decodes:         " + service.getPeakConcurrentDecodes() + " (limit " + maxDecodes + ")");
+		System.out.println("Bytes delivered:      " + received.get());
+		System.out.println("Worst chunk gap:      " + TimeUnit.NANOSECONDS.toMillis(worstGapNanos.get())
+				+ "ms (chunks are due every 20ms)");
+		System.out.println("Elapsed:              " + elapsedMillis + "ms (each clip plays for 500ms)");
+	}
+
+	// Tracks the longest wait between two chunks of its own stream, i.e. delivery jitter
+	private static class PacedClient implements PCMSink {
+		private final AtomicLong received;
+		private final AtomicLong worstGapNanos;
+		private long lastWrite = 0;
+
+		PacedClient(AtomicLong received, AtomicLong worstGapNanos) {
+			this.received = received;
+			this.worstGapNanos = worstGapNanos;
+		}
+
+		public void write(ByteBuffer pcm) {
+			long now = System.nanoTime();
+			if (this.lastWrite != 0) {
+				long gap = now - this.lastWrite;
+				long worst;
+				while (gap > (worst = this.worstGapNanos.get()) && !this.worstGapNanos.compareAndSet(worst, gap)) {}
+			}
+			this.lastWrite = now;
+			this.received.addAndGet(pcm.remaining());
+		}
+	}
+
+	// Streams its PCM in 20ms slices so pacing and backpressure apply per chunk
+	private static class ChunkedDecoder extends AudioDecoder {
+		public ChunkedDecoder(INativeDecoder decoder, String pathToAudioFile) {
+			super(decoder, pathToAudioFile);
+		}
+
+		@Override
+		public AudioInputStream loadStream() {
+			return null;
+		}
+
+		@Override
+		public byte[] decode(AudioInputStream ais) {
+			return this.decoder.decode(ais);
+		}
+
+		@Override
+		public void output(ByteBuffer pcm) {
+			while (pcm.hasRemaining()) {
+				ByteBuffer chunk = pcm.slice();
+				chunk.limit(Math.min(CHUNK_BYTES, chunk.remaining()));
+				pcm.position(pcm.position() + chunk.remaining());
+				super.output(chunk);
+			}
+		}
+	}
+}
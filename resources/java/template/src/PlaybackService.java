@@ -0,0 +1,362 @@
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// PlaybackService runs one AudioDecoder.play() per client. Every stream gets its own
+// (virtual, where the JDK has them) thread for the template method and another one that
+// paces delivery to the client; blocking either of them is cheap, so we can afford
+// thousands. The CPU bound decode is what has to be rationed, so every stream's decode()
+// phase is handed through a DecodeGate to a fixed pool of platform threads. Running it
+// there rather than on the stream's own thread keeps long decodes from pinning every
+// virtual thread carrier, which would stall the pacing of all the other streams.
+public class PlaybackService {
+	// How the per-stream decode and delivery tasks are run
+	public enum StreamThreads { VIRTUAL, PLATFORM, SUPPLIED }
+
+	private static final Method VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+	private final ExecutorService executor;
+	private final StreamThreads streamThreads;
+	private final ExecutorService decodePool;
+	private final int bufferedChunks;
+	private final long stallTimeoutMillis;
+	private final DecodeGate decodeGate = new PoolGate();
+	private final Set<AudioDecoder> playing =
+			Collections.newSetFromMap(new ConcurrentHashMap<AudioDecoder, Boolean>());
+
+	private final AtomicInteger activeStreams = new AtomicInteger();
+	private final AtomicInteger completedStreams = new AtomicInteger();
+	private final AtomicInteger droppedStreams = new AtomicInteger();
+	private final AtomicInteger failedStreams = new AtomicInteger();
+	private final AtomicInteger decodesInFlight = new AtomicInteger();
+	private final AtomicInteger peakDecodesInFlight = new AtomicInteger();
+
+	public PlaybackService() {
+		this(Runtime.getRuntime().availableProcessors(), 8, 5000);
+	}
+
+	// bufferedChunks: decoded chunks a stream may run ahead of its client before the
+	// decoder blocks; stallTimeoutMillis: how long it blocks before the client is dropped.
+	// Streams run on virtual threads where the JDK has them, otherwise on a cached pool
+	// that starts two platform threads per stream (see getStreamThreads()).
+	public PlaybackService(int maxConcurrentDecodes, int bufferedChunks, long stallTimeoutMillis) {
+		this(maxConcurrentDecodes, bufferedChunks, stallTimeoutMillis, newPerStreamExecutor(),
+				VIRTUAL_THREAD_EXECUTOR != null ? StreamThreads.VIRTUAL : StreamThreads.PLATFORM);
+	}
+
+	// streamExecutor runs two mostly blocked tasks per stream, so it needs at least twice
+	// as many threads as there will be concurrent streams. The service shuts it down.
+	public PlaybackService(int maxConcurrentDecodes, int bufferedChunks, long stallTimeoutMillis,
+			ExecutorService streamExecutor) {
+		this(maxConcurrentDecodes, bufferedChunks, stallTimeoutMillis, streamExecutor, StreamThreads.SUPPLIED);
+	}
+
+	private PlaybackService(int maxConcurrentDecodes, int bufferedChunks, long stallTimeoutMillis,
+			ExecutorService streamExecutor, StreamThreads streamThreads) {
+		if (maxConcurrentDecodes <= 0 || bufferedChunks <= 0) {
+			throw new IllegalArgumentException("maxConcurrentDecodes and bufferedChunks must be positive");
+		}
+		this.executor = streamExecutor;
+		this.streamThreads = streamThreads;
+		this.decodePool = Executors.newFixedThreadPool(maxConcurrentDecodes, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "playback-decode-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.bufferedChunks = bufferedChunks;
+		this.stallTimeoutMillis = stallTimeoutMillis;
+	}
+
+	// bytesPerSecond paces delivery at real time; 0 delivers as fast as the client takes it.
+	// The service owns the decoder's sink and decode gate until the stream finishes, so a
+	// decoder can only be in one stream at a time.
+	public PlaybackSession play(AudioDecoder decoder, PCMSink client, long bytesPerSecond) {
+		if (!this.playing.add(decoder)) {
+			throw new IllegalStateException("Decoder for " + decoder.filePath + " is already playing");
+		}
+		PlaybackSession session = new PlaybackSession(this, decoder, client, bytesPerSecond,
+				new ArrayBlockingQueue<ByteBuffer>(this.bufferedChunks), this.stallTimeoutMillis);
+		activeStreams.incrementAndGet();
+		this.executor.execute(session.decodeTask());
+		this.executor.execute(session.deliveryTask());
+		return session;
+	}
+
+	public void shutdown() {
+		this.executor.shutdown();
+		this.decodePool.shutdown();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		return this.executor.awaitTermination(timeout, unit)
+				&& this.decodePool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	public StreamThreads getStreamThreads() {
+		return this.streamThreads;
+	}
+
+	public int getActiveStreams() {
+		return activeStreams.get();
+	}
+
+	public int getCompletedStreams() {
+		return completedStreams.get();
+	}
+
+	public int getDroppedStreams() {
+		return droppedStreams.get();
+	}
+
+	// Streams whose play() or client threw (see PlaybackSession.getFailure())
+	public int getFailedStreams() {
+		return failedStreams.get();
+	}
+
+	public int getPeakConcurrentDecodes() {
+		return peakDecodesInFlight.get();
+	}
+
+	DecodeGate getDecodeGate() {
+		return this.decodeGate;
+	}
+
+	void released(AudioDecoder decoder) {
+		this.playing.remove(decoder);
+	}
+
+	void finished(PlaybackSession session) {
+		activeStreams.decrementAndGet();
+		if (session.getFailure() != null) {
+			failedStreams.incrementAndGet();
+		} else if (session.isDropped()) {
+			droppedStreams.incrementAndGet();
+		} else {
+			completedStreams.incrementAndGet();
+		}
+	}
+
+	private static Method findVirtualThreadExecutor() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null; // pre-21 JDK
+		}
+	}
+
+	private static ExecutorService newPerStreamExecutor() {
+		if (VIRTUAL_THREAD_EXECUTOR != null) {
+			try {
+				return (ExecutorService) VIRTUAL_THREAD_EXECUTOR.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Could not create virtual thread executor", e);
+			}
+		}
+		// platform threads, which caps out much sooner
+		return Executors.newCachedThreadPool();
+	}
+
+	// Runs the decode on the pool and parks the stream's thread until it's done. The pool
+	// queues decodes first come, first served once all of its threads are busy.
+	private class PoolGate implements DecodeGate {
+		public byte[] decode(final AudioDecoder decoder, final AudioInputStream ais) {
+			Future<byte[]> result = decodePool.submit(new Callable<byte[]>() {
+				public byte[] call() {
+					int inFlight = decodesInFlight.incrementAndGet();
+					int peak;
+					while (inFlight > (peak = peakDecodesInFlight.get())
+							&& !peakDecodesInFlight.compareAndSet(peak, inFlight)) {}
+					try {
+						return decoder.decode(ais);
+					} finally {
+						decodesInFlight.decrementAndGet();
+					}
+				}
+			});
+			try {
+				return result.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IllegalStateException("Decode failed", cause);
+			} catch (InterruptedException e) {
+				result.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for decode", e);
+			}
+		}
+	}
+}
+
+// One client's stream. The decoder side writes chunks into a bounded queue (blocking
+// when the client falls behind) and the delivery side drains it at the stream's pace.
+class PlaybackSession implements PCMSink {
+	private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+	private final PlaybackService service;
+	private final AudioDecoder decoder;
+	private final PCMSink client;
+	private final long bytesPerSecond;
+	private final BlockingQueue<ByteBuffer> queue;
+	private final long stallTimeoutMillis;
+	private final CountDownLatch done = new CountDownLatch(1);
+	// The decode and delivery tasks; the session is done once both have finished
+	private final AtomicInteger runningTasks = new AtomicInteger(2);
+
+	private volatile boolean dropped = false;
+	private volatile RuntimeException failure = null;
+	private volatile long bytesDelivered = 0;
+
+	PlaybackSession(PlaybackService service, AudioDecoder decoder, PCMSink client,
+			long bytesPerSecond, BlockingQueue<ByteBuffer> queue, long stallTimeoutMillis) {
+		this.service = service;
+		this.decoder = decoder;
+		this.client = client;
+		this.bytesPerSecond = bytesPerSecond;
+		this.queue = queue;
+		this.stallTimeoutMillis = stallTimeoutMillis;
+	}
+
+	// Called from the decoder's output() hook
+	@Override
+	public void write(ByteBuffer pcm) {
+		if (this.dropped) {
+			throw new IllegalStateException("Client was dropped");
+		}
+		try {
+			if (!this.queue.offer(pcm, this.stallTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				this.dropped = true;
+				throw new IllegalStateException("Client fell more than " + this.stallTimeoutMillis + "ms behind");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.dropped = true;
+			throw new IllegalStateException("Interrupted while waiting on client", e);
+		}
+	}
+
+	public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+		return this.done.await(timeout, unit);
+	}
+
+	public boolean isDropped() {
+		return this.dropped;
+	}
+
+	public RuntimeException getFailure() {
+		return this.failure;
+	}
+
+	public long getBytesDelivered() {
+		return this.bytesDelivered;
+	}
+
+	Runnable decodeTask() {
+		return new Runnable() {
+			public void run() {
+				decoder.setDecodeGate(service.getDecodeGate());
+				decoder.setSink(PlaybackSession.this);
+				try {
+					decoder.play();
+				} catch (RuntimeException e) {
+					if (!dropped) {
+						failure = e;
+					}
+				} finally {
+					decoder.setSink(null);
+					decoder.setDecodeGate(null);
+					service.released(decoder);
+					endOfStream();
+					taskFinished();
+				}
+			}
+		};
+	}
+
+	// Never blocks for longer than the stall timeout: if the delivery side has stopped
+	// draining (client gone or hopelessly behind) the backlog is thrown away instead
+	private void endOfStream() {
+		boolean delivered = false;
+		if (!this.dropped) {
+			try {
+				delivered = this.queue.offer(END_OF_STREAM, this.stallTimeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (!delivered) {
+			this.dropped = true;
+			// we're the only producer, so once it's cleared there's room for the marker
+			this.queue.clear();
+			this.queue.offer(END_OF_STREAM);
+		}
+	}
+
+	private void taskFinished() {
+		if (this.runningTasks.decrementAndGet() == 0) {
+			this.service.finished(this);
+			this.done.countDown();
+		}
+	}
+
+	Runnable deliveryTask() {
+		return new Runnable() {
+			public void run() {
+				try {
+					long start = System.nanoTime();
+					long delivered = 0;
+					ByteBuffer chunk;
+					while ((chunk = queue.take()) != END_OF_STREAM) {
+						if (dropped) {
+							continue;
+						}
+						int size = chunk.remaining();
+						client.write(chunk);
+						delivered += size;
+						bytesDelivered = delivered;
+						if (bytesPerSecond > 0) {
+							long due = start + delivered * 1000000000L / bytesPerSecond;
+							long wait = due - System.nanoTime();
+							if (wait > 0) {
+								TimeUnit.NANOSECONDS.sleep(wait);
+							}
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					dropped = true;
+				} catch (RuntimeException e) {
+					failure = e;
+					dropped = true; // a broken client can't keep draining the queue
+					// so free the decoder if it's blocked on a full one; its next write() fails fast
+					queue.clear();
+				} finally {
+					taskFinished();
+				}
+			}
+		};
+	}
+}
@@ -5,10 +5,20 @@ abstract class AbstractClass {
 	public void hook1() {}
 	public void hook2() {}
 	public final void templateMethod() {
+		TemplateMetrics.PhaseTimers timers = TemplateMetrics.timersFor(this);
+		long t = timers != null ? System.nanoTime() : 0;
+		TemplatePhaseEvent phase = TemplateMetrics.beginPhase();
 		hook1();
+		t = TemplateMetrics.lap(timers, phase, this, TemplateMetrics.Phase.HOOK1, t);
+		phase = TemplateMetrics.beginPhase();
 		operation1();
+		t = TemplateMetrics.lap(timers, phase, this, TemplateMetrics.Phase.OPERATION1, t);
+		phase = TemplateMetrics.beginPhase();
 		operation2();
+		t = TemplateMetrics.lap(timers, phase, this, TemplateMetrics.Phase.OPERATION2, t);
+		phase = TemplateMetrics.beginPhase();
 		hook2();
+		TemplateMetrics.lap(timers, phase, this, TemplateMetrics.Phase.HOOK2, t);
 	}
 }
 class ConcreteClass extends AbstractClass {
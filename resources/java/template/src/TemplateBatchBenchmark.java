@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Manual benchmark: templateMethod() in a per-instance loop vs. TemplateBatchExecutor.
+// Usage: java TemplateBatchBenchmark [instances] [rounds]
+public class TemplateBatchBenchmark {
+	// Each stage works against its own table, large enough that the four of them
+	// together don't fit in cache while any one of them mostly does
+	private static final int TABLE_SIZE = 1 << 18;
+	private static final int[] TABLE1 = newTable(1);
+	private static final int[] TABLE2 = newTable(2);
+	private static final int[] TABLE3 = newTable(3);
+	private static final int[] TABLE4 = newTable(4);
+
+	public static void main(String[] args) {
+		int instances = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		List<TableTemplate> templates = new ArrayList<TableTemplate>(instances);
+		for (int i = 0; i < instances; i++) {
+			templates.add(new TableTemplate(i * 7919));
+		}
+		TemplateBatchExecutor sequential = new TemplateBatchExecutor();
+		TemplateBatchExecutor parallel = new TemplateBatchExecutor(ForkJoinPool.commonPool(),
+				EnumSet.allOf(TemplateBatchExecutor.Stage.class), 4096);
+
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			for (TableTemplate template : templates) {
+				template.templateMethod();
+			}
+			long loopNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			sequential.execute(templates);
+			long batchNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			parallel.execute(templates);
+			long parallelNanos = System.nanoTime() - start;
+
+			System.out.printf("round %2d: per-instance %6.1fms  batched %6.1fms  batched+parallel %6.1fms%n",
+					round, loopNanos / 1e6, batchNanos / 1e6, parallelNanos / 1e6);
+		}
+		long checksum = 0;
+		for (TableTemplate template : templates) {
+			checksum += template.acc;
+		}
+		System.out.println("checksum " + checksum);
+	}
+
+	private static int[] newTable(int seed) {
+		int[] table = new int[TABLE_SIZE];
+		for (int i = 0; i < TABLE_SIZE; i++) {
+			table[i] = (i * 31 + seed) ^ (i >>> 3);
+		}
+		return table;
+	}
+
+	// Each instance only touches its own fields plus read-only tables,
+	// so every stage is safe to run in parallel
+	private static class TableTemplate extends AbstractClass {
+		private int key;
+		private long acc;
+
+		TableTemplate(int key) {
+			this.key = key;
+		}
+
+		public void hook1() {
+			key = TABLE1[key & (TABLE_SIZE - 1)];
+		}
+		public void operation1() {
+			acc += TABLE2[key & (TABLE_SIZE - 1)];
+		}
+		public void operation2() {
+			acc ^= TABLE3[(int) acc & (TABLE_SIZE - 1)];
+		}
+		public void hook2() {
+			key += TABLE4[(int) (acc >>> 7) & (TABLE_SIZE - 1)];
+		}
+	}
+}
@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// TemplateBatchExecutor runs templateMethod() over a whole collection one stage at a time
+// (every hook1, then every operation1, ...) instead of one instance at a time, so each
+// stage's code and data stay hot in the cache. Each instance still sees hook1, operation1,
+// operation2, hook2 in that order. If one of its steps throws, its remaining steps are
+// skipped just like in templateMethod(), the other instances carry on, and the first
+// failure is rethrown once the batch is done. Each stage is recorded through TemplateMetrics
+// (and as a JFR TemplatePhaseEvent) exactly as templateMethod() records it. Stages that
+// don't touch shared state can be marked parallel, in which case they're split into chunks
+// on a ForkJoinPool.
+public class TemplateBatchExecutor {
+	public enum Stage {
+		HOOK1(TemplateMetrics.Phase.HOOK1),
+		OPERATION1(TemplateMetrics.Phase.OPERATION1),
+		OPERATION2(TemplateMetrics.Phase.OPERATION2),
+		HOOK2(TemplateMetrics.Phase.HOOK2);
+
+		private final TemplateMetrics.Phase phase;
+
+		private Stage(TemplateMetrics.Phase phase) {
+			this.phase = phase;
+		}
+	}
+
+	private static final Stage[] STAGES = Stage.values();
+
+	private final ForkJoinPool pool;
+	private final Set<Stage> parallelStages;
+	private final int chunkSize;
+
+	// Runs every stage sequentially on the calling thread
+	public TemplateBatchExecutor() {
+		this(null, EnumSet.noneOf(Stage.class), Integer.MAX_VALUE);
+	}
+
+	public TemplateBatchExecutor(ForkJoinPool pool, Set<Stage> parallelStages, int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		if (pool == null && !parallelStages.isEmpty()) {
+			throw new IllegalArgumentException("Parallel stages need a ForkJoinPool");
+		}
+		this.pool = pool;
+		this.parallelStages = EnumSet.noneOf(Stage.class);
+		this.parallelStages.addAll(parallelStages);
+		this.chunkSize = chunkSize;
+	}
+
+	public void execute(List<? extends AbstractClass> templates) {
+		Batch batch = new Batch(templates.toArray(new AbstractClass[templates.size()]));
+		int size = batch.templates.length;
+		for (Stage stage : STAGES) {
+			if (this.parallelStages.contains(stage) && size > this.chunkSize) {
+				this.pool.invoke(new Chunk(batch, stage, 0, size, this.chunkSize));
+			} else {
+				batch.run(stage, 0, size);
+			}
+		}
+		if (batch.firstFailure != null) {
+			throw batch.firstFailure;
+		}
+	}
+
+	// Works on an array copy so indexing stays O(1) whatever List it was handed
+	private static class Batch {
+		private final AbstractClass[] templates;
+		private final boolean[] failed;
+		private int firstFailureIndex = Integer.MAX_VALUE;
+		private RuntimeException firstFailure = null;
+
+		Batch(AbstractClass[] templates) {
+			this.templates = templates;
+			this.failed = new boolean[templates.length];
+		}
+
+		void run(Stage stage, int from, int to) {
+			for (int i = from; i < to; i++) {
+				if (this.failed[i]) {
+					continue;
+				}
+				AbstractClass template = this.templates[i];
+				TemplateMetrics.PhaseTimers timers = TemplateMetrics.timersFor(template);
+				long t = timers != null ? System.nanoTime() : 0;
+				TemplatePhaseEvent phase = TemplateMetrics.beginPhase();
+				try {
+					switch (stage) {
+						case HOOK1: template.hook1(); break;
+						case OPERATION1: template.operation1(); break;
+						case OPERATION2: template.operation2(); break;
+						case HOOK2: template.hook2(); break;
+					}
+					TemplateMetrics.lap(timers, phase, template, stage.phase, t);
+				} catch (RuntimeException e) {
+					this.failed[i] = true;
+					fail(i, e);
+				}
+			}
+		}
+
+		// Keeps the failure the per-instance loop would have hit first
+		private synchronized void fail(int index, RuntimeException e) {
+			if (index < this.firstFailureIndex) {
+				this.firstFailureIndex = index;
+				this.firstFailure = e;
+			}
+		}
+	}
+
+	private static class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Batch batch;
+		private final Stage stage;
+		private final int from;
+		private final int to;
+		private final int chunkSize;
+
+		Chunk(Batch batch, Stage stage, int from, int to, int chunkSize) {
+			this.batch = batch;
+			this.stage = stage;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= this.chunkSize) {
+				this.batch.run(this.stage, this.from, this.to);
+				return;
+			}
+			List<Chunk> chunks = new ArrayList<Chunk>();
+			for (int start = this.from; start < this.to; start += this.chunkSize) {
+				chunks.add(new Chunk(this.batch, this.stage, start,
+						Math.min(start + this.chunkSize, this.to), this.chunkSize));
+			}
+			invokeAll(chunks);
+		}
+	}
+}
@@ -0,0 +1,233 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// TemplateMetrics times each phase of a template method (AudioDecoder.play(),
+// AbstractClass.templateMethod()) per concrete subclass. Recording is allocation free:
+// every phase has a fixed array of power-of-two latency buckets, and the templates thread
+// the phase start time through lap() as a plain long. When disabled, the templates only
+// pay for one volatile read, because timersFor() returns null and lap() skips the clock.
+// lap() also commits the phase's TemplatePhaseEvent when JFR tracing is on. Everything is
+// exposed over JMX under the "TemplateMetrics" domain.
+public class TemplateMetrics {
+	public enum Phase {
+		LOAD_STREAM, BEFORE_DECODE, DECODE, OUTPUT, AFTER_DECODE,
+		HOOK1, OPERATION1, OPERATION2, HOOK2
+	}
+
+	public interface ControlMXBean {
+		public boolean isEnabled();
+		public void setEnabled(boolean enabled);
+	}
+
+	public interface PhaseStatsMXBean {
+		public String getTemplateClass();
+		public Map<String, Long> getCounts();
+		public Map<String, Double> getMeanMicros();
+		public Map<String, Double> getP50Micros();
+		public Map<String, Double> getP99Micros();
+		public long getBytesDecoded();
+		public double getBytesPerSecond();
+		public void reset();
+	}
+
+	private static final String DOMAIN = "TemplateMetrics";
+	private static final int BUCKETS = 64;
+	private static final Phase[] PHASES = Phase.values();
+
+	private static volatile boolean enabled = false;
+
+	private static final ClassValue<PhaseTimers> TIMERS = new ClassValue<PhaseTimers>() {
+		@Override
+		protected PhaseTimers computeValue(Class<?> templateClass) {
+			PhaseTimers timers = new PhaseTimers(templateClass.getName());
+			register("type=Phases,name=" + ObjectName.quote(templateClass.getName()), timers);
+			return timers;
+		}
+	};
+
+	static {
+		register("type=Control", new ControlMXBean() {
+			public boolean isEnabled() {
+				return TemplateMetrics.isEnabled();
+			}
+			public void setEnabled(boolean on) {
+				TemplateMetrics.setEnabled(on);
+			}
+		});
+	}
+
+	private TemplateMetrics() {}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean on) {
+		enabled = on;
+	}
+
+	// Returns null when metrics are off, which is what keeps the disabled path cheap
+	public static PhaseTimers timersFor(Object template) {
+		return enabled ? TIMERS.get(template.getClass()) : null;
+	}
+
+	// Starts the JFR span for the next phase. While tracing is off the event never escapes
+	// the template, so the JIT scalar-replaces it and nothing is allocated.
+	public static TemplatePhaseEvent beginPhase() {
+		TemplatePhaseEvent event = new TemplatePhaseEvent();
+		event.begin();
+		return event;
+	}
+
+	// Ends the phase that just ran: commits its JFR span (if tracing is on), records the
+	// time since start against it (if metrics are on) and returns the new start time
+	public static long lap(PhaseTimers timers, TemplatePhaseEvent event, Object template, Phase phase, long start) {
+		if (event.shouldCommit()) {
+			event.template = template.getClass();
+			event.phase = phase.name();
+			event.commit();
+		}
+		if (timers == null) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		timers.record(phase, now - start);
+		return now;
+	}
+
+	private static void register(String properties, Object mbean) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(mbean, name);
+			}
+		} catch (JMException e) {
+			// Metrics are still recorded, they just won't be visible over JMX
+		}
+	}
+
+	public static class PhaseTimers implements PhaseStatsMXBean {
+		private final String templateClass;
+		private final AtomicLongArray buckets = new AtomicLongArray(PHASES.length * BUCKETS);
+		private final AtomicLongArray counts = new AtomicLongArray(PHASES.length);
+		private final AtomicLongArray totalNanos = new AtomicLongArray(PHASES.length);
+		private final AtomicLong bytesDecoded = new AtomicLong();
+
+		PhaseTimers(String templateClass) {
+			this.templateClass = templateClass;
+		}
+
+		public void record(Phase phase, long nanos) {
+			int p = phase.ordinal();
+			int bucket = nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+			this.buckets.incrementAndGet(p * BUCKETS + bucket);
+			this.counts.incrementAndGet(p);
+			this.totalNanos.addAndGet(p, nanos);
+		}
+
+		public void addBytesDecoded(long bytes) {
+			this.bytesDecoded.addAndGet(bytes);
+		}
+
+		public long getCount(Phase phase) {
+			return this.counts.get(phase.ordinal());
+		}
+
+		// Upper bound of the bucket holding the given percentile, in nanoseconds
+		public long getPercentileNanos(Phase phase, double percentile) {
+			int p = phase.ordinal();
+			long count = this.counts.get(p);
+			if (count == 0) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(count * percentile / 100.0);
+			long seen = 0;
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				seen += this.buckets.get(p * BUCKETS + bucket);
+				if (seen >= rank) {
+					return bucket == 63 ? Long.MAX_VALUE : (1L << (bucket + 1)) - 1;
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public String getTemplateClass() {
+			return this.templateClass;
+		}
+
+		@Override
+		public Map<String, Long> getCounts() {
+			Map<String, Long> result = new LinkedHashMap<String, Long>();
+			for (Phase phase : PHASES) {
+				if (getCount(phase) > 0) {
+					result.put(phase.name(), getCount(phase));
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public Map<String, Double> getMeanMicros() {
+			Map<String, Double> result = new LinkedHashMap<String, Double>();
+			for (Phase phase : PHASES) {
+				long count = getCount(phase);
+				if (count > 0) {
+					result.put(phase.name(), this.totalNanos.get(phase.ordinal()) / (count * 1000.0));
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public Map<String, Double> getP50Micros() {
+			return percentileMicros(50);
+		}
+
+		@Override
+		public Map<String, Double> getP99Micros() {
+			return percentileMicros(99);
+		}
+
+		@Override
+		public long getBytesDecoded() {
+			return this.bytesDecoded.get();
+		}
+
+		@Override
+		public double getBytesPerSecond() {
+			long nanos = this.totalNanos.get(Phase.DECODE.ordinal());
+			return nanos == 0 ? 0 : this.bytesDecoded.get() * 1e9 / nanos;
+		}
+
+		@Override
+		public void reset() {
+			for (int i = 0; i < this.buckets.length(); i++) {
+				this.buckets.set(i, 0);
+			}
+			for (int i = 0; i < PHASES.length; i++) {
+				this.counts.set(i, 0);
+				this.totalNanos.set(i, 0);
+			}
+			this.bytesDecoded.set(0);
+		}
+
+		private Map<String, Double> percentileMicros(double percentile) {
+			Map<String, Double> result = new LinkedHashMap<String, Double>();
+			for (Phase phase : PHASES) {
+				if (getCount(phase) > 0) {
+					result.put(phase.name(), getPercentileNanos(phase, percentile) / 1000.0);
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,22 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// JFR span for one phase of a template method, committed by TemplateMetrics.lap()
+@Name("patterns.TemplatePhase")
+@Label("Template Phase")
+@Category({"Design Patterns", "Template Method"})
+@Description("One step of AudioDecoder.play() or AbstractClass.templateMethod()")
+@Enabled(false)
+@StackTrace(false)
+class TemplatePhaseEvent extends Event {
+	@Label("Template")
+	Class<?> template;
+
+	@Label("Phase")
+	String phase;
+}